@@ -0,0 +1,206 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.floreysoft.jmte.Engine;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import org.graylog.events.event.EventDto;
+import org.graylog.events.notifications.EventNotificationContext;
+import org.graylog.events.notifications.EventNotificationService;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.system.NodeId;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.graylog2.streams.StreamService;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Synthetic notification contexts and backlogs for the benchmarks. Nothing here talks to
+ * MongoDB, OpenSearch or Slack.
+ */
+final class BenchmarkFixtures {
+    static final String STREAM_ID = "000000000000000000000001";
+    static final String FOOTER = "${source} | ${field_0} | ${event_definition_title}";
+
+    private BenchmarkFixtures() {
+    }
+
+    static SlackNotificationConfig.Builder config(int backlogItems) {
+        return SlackNotificationConfig.builder()
+                .webhookUrl("https://hooks.slack.com/services/T0/B0/X")
+                .channel("#alerts")
+                .userName("Graylog")
+                .color("#FF0000")
+                .backlogItems(backlogItems)
+                .notifyUsers("")
+                .shortMode(true)
+                .linkNames(true)
+                .messageIcon(":warning:")
+                .footerText(FOOTER)
+                .footerIconUrl("")
+                .footerTsField("timestamp")
+                .graylogUrl("http://graylog.example.com")
+                .proxyAddress("")
+                .fields("source,field_0,field_1,${field_2}")
+                .acknowledge(true)
+                .preformat(true)
+                .token("");
+    }
+
+    /**
+     * @param size       number of backlog messages
+     * @param fieldCount number of extra fields of each message
+     * @param fieldWidth length of the message and of each field value
+     */
+    static List<MessageSummary> backlog(int size, int fieldCount, int fieldWidth) {
+        DateTime timestamp = new DateTime(2023, 6, 1, 10, 0, DateTimeZone.UTC);
+        ImmutableList.Builder<MessageSummary> backlog = ImmutableList.builder();
+        for (int i = 0; i < size; i++) {
+            Message message = new Message(text("kernel: EXT4-fs warning (device sda" + i + ") ", fieldWidth),
+                    "server" + (i % 10) + ".example.com", timestamp.plusSeconds(i));
+            for (int f = 0; f < fieldCount; f++) {
+                message.addField("field_" + f, text("value_" + f + "_", fieldWidth));
+            }
+            backlog.add(new MessageSummary("graylog_" + (i % 4), message));
+        }
+        return backlog.build();
+    }
+
+    static Map<String, Object> eventFields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("event_definition_id", "5d4d33753d27460ad18e0c4d");
+        fields.put("event_definition_type", "aggregation-v1");
+        fields.put("event_definition_title", "Disk usage is high");
+        fields.put("event_definition_description", "");
+        return fields;
+    }
+
+    static EventNotificationContext context(SlackNotificationConfig config) {
+        DateTime now = new DateTime(2023, 6, 1, 10, 5, DateTimeZone.UTC);
+        EventDto event = EventDto.builder()
+                .id("01H1ZKXRZJ8XW0G2GQ2Y5V3M9F")
+                .eventDefinitionType("aggregation-v1")
+                .eventDefinitionId("5d4d33753d27460ad18e0c4d")
+                .originContext("urn:graylog:message:es:graylog_0:b5e53442")
+                .eventTimestamp(now)
+                .processingTimestamp(now)
+                .timerangeStart(now.minusMinutes(5))
+                .timerangeEnd(now)
+                .streams(ImmutableSet.of(STREAM_ID))
+                .sourceStreams(ImmutableSet.of(STREAM_ID))
+                .message("Disk usage is high")
+                .source("server1.example.com")
+                .keyTuple(Collections.emptyList())
+                .key("")
+                .priority(2)
+                .alert(true)
+                .fields(Collections.emptyMap())
+                .groupByFields(Collections.emptyMap())
+                .build();
+        return EventNotificationContext.builder()
+                .notificationId("5d4d33753d27460ad18e0c4e")
+                .notificationConfig(config)
+                .event(event)
+                .build();
+    }
+
+    /**
+     * A notification wired to in-memory services. Messages are sent synchronously to the given
+     * client.
+     */
+    static SlackNotification notification(List<MessageSummary> backlog, SlackClient client, boolean parallel) {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        ObjectMapper objectMapper = new ObjectMapperProvider().get();
+        EventNotificationService backlogService = new EventNotificationService(null, null) {
+            @Override
+            public ImmutableList<MessageSummary> getBacklogForEvent(EventNotificationContext ctx) {
+                return ImmutableList.copyOf(backlog);
+            }
+        };
+        StreamService streamService = (StreamService) Proxy.newProxyInstance(
+                BenchmarkFixtures.class.getClassLoader(), new Class<?>[]{StreamService.class},
+                (proxy, method, args) -> {
+                    @SuppressWarnings("unchecked")
+                    Collection<String> ids = (Collection<String>) args[0];
+                    Set<Stream> streams = new HashSet<>();
+                    for (String id : ids) {
+                        streams.add(stream(id, "All messages"));
+                    }
+                    return streams;
+                });
+        NotificationService notificationService = (NotificationService) Proxy.newProxyInstance(
+                BenchmarkFixtures.class.getClassLoader(), new Class<?>[]{NotificationService.class},
+                (proxy, method, args) -> null);
+        NodeId nodeId = new NodeId() {
+            @Override
+            public String getNodeId() {
+                return "5ca1ab1e-0000-4000-a000-000000000000";
+            }
+        };
+        SlackJson json = new SlackJson();
+        SlackClientFactory clientFactory = new SlackClientFactory(Duration.seconds(1), Duration.seconds(1),
+                Duration.seconds(1), false, Duration.hours(1), Duration.hours(1), 1.0, 10.0, 3,
+                Duration.seconds(1),
+                new SlackCircuitBreakers(5, 1000, metricRegistry, Ticker.systemTicker()), json, metricRegistry) {
+            @Override
+            public SlackClient get(SlackDestination destination) {
+                return client;
+            }
+        };
+        SlackDeliveryService deliveryService = new SlackDeliveryService(false, 1, 1, false, "block",
+                Duration.seconds(1), notificationService, nodeId, metricRegistry);
+        SlackPayloadBudget payloadBudget = new SlackPayloadBudget(Size.kilobytes(512), 3000, metricRegistry);
+        SlackOutbox outbox = new SlackOutbox(false, null, Size.megabytes(1), Size.megabytes(1), Duration.seconds(30),
+                Duration.hours(6), clientFactory, null, json, notificationService, nodeId, metricRegistry);
+        return new SlackNotification(backlogService,
+                new StreamMetadataCache(streamService, new EventBus(), Duration.minutes(1), metricRegistry),
+                notificationService, nodeId, new TemplateCache(new Engine()), objectMapper, clientFactory,
+                deliveryService, new SlackAggregator(deliveryService, payloadBudget, outbox, notificationService, nodeId,
+                        metricRegistry),
+                new RenderPlanCache(), new SlackAttachmentRenderer(parallel, 4, 20, metricRegistry), payloadBudget,
+                outbox, metricRegistry);
+    }
+
+    private static Stream stream(String id, String title) {
+        return (Stream) Proxy.newProxyInstance(BenchmarkFixtures.class.getClassLoader(), new Class<?>[]{Stream.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getTitle":
+                            return title;
+                        case "hashCode":
+                            return id.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static String text(String prefix, int width) {
+        StringBuilder sb = new StringBuilder(width);
+        while (sb.length() < width) {
+            sb.append(prefix);
+        }
+        return sb.substring(0, width);
+    }
+}
@@ -0,0 +1,105 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares answering a button click by reading the original message into objects and writing it
+ * again with cutting and splicing the original text. The response is written to a null stream as
+ * it is streamed to Slack.
+ *
+ * <p>Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.includes="SlackActionBenchmark -prof gc"</code>
+ * to see allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlackActionBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.readerFor(SlackActionPayload.class);
+    private static final SlackJson JSON = new SlackJson();
+
+    @Param({"5", "50"})
+    public int attachments;
+
+    @Param({"256", "4096"})
+    public int fieldWidth;
+
+    private String payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        SlackMessage message = new SlackMessage("@siri <http://graylog/streams|All messages> Disk usage is high",
+                "#alerts", "Graylog", ":warning:", true);
+        String text = BenchmarkFixtures.backlog(1, 0, fieldWidth).get(0).getRawMessage().getMessage();
+        for (int i = 0; i < attachments; i++) {
+            SlackMessage.Attachment attachment = message.addAttachment(text, "#FF0000", "server" + i, null,
+                    1685613600L + i, "id" + i, null);
+            attachment.addField(new SlackMessage.AttachmentField("source", "server" + i, true));
+            attachment.actions = Lists.newArrayList(new SlackMessage.Action("acknowledge", "Acknowledge", "true",
+                    "primary"));
+        }
+        Map<String, Object> action = new HashMap<>();
+        action.put("name", "acknowledge");
+        action.put("type", "button");
+        action.put("value", "true");
+        Map<String, Object> user = new HashMap<>();
+        user.put("id", "U1");
+        user.put("name", "siri");
+        Map<String, Object> slackPayload = new HashMap<>();
+        slackPayload.put("actions", Lists.newArrayList(action));
+        slackPayload.put("callback_id", "5d4d");
+        slackPayload.put("user", user);
+        slackPayload.put("attachment_id", String.valueOf(attachments / 2 + 1));
+        slackPayload.put("action_ts", "1685613600.000001");
+        slackPayload.put("original_message", MAPPER.readTree(message.getJsonString(JSON)));
+        slackPayload.put("response_url", "https://hooks.slack.com/actions/T0/1/x");
+        payload = MAPPER.writeValueAsString(slackPayload);
+    }
+
+    private static SlackMessage.Attachment reply() {
+        return new SlackMessage.Attachment("acked", "acked", null, "good", null, null, 1685613600L,
+                Lists.newArrayList(), null, null, null).setMarkdownIn("text");
+    }
+
+    /**
+     * The implementation before the message was patched while copied, kept as a baseline.
+     */
+    @Benchmark
+    public SlackMessage roundTrip() throws Exception {
+        SlackActionPayload slackPayload = READER.readValue(payload);
+        SlackMessage message = slackPayload.originalMessage;
+        int attachmentId = Integer.parseInt(slackPayload.attachmentId);
+        message.attachments.get(attachmentId - 1).actions = null;
+        message.insertAttachment(attachmentId, "acked", "good", null, null, 1685613600L).setMarkdownIn("text");
+        message.writeTo(JSON, OutputStream.nullOutputStream());
+        return message;
+    }
+
+    @Benchmark
+    public SlackMessagePatcher streaming() throws Exception {
+        SlackMessagePatcher patcher = SlackMessagePatcher.parse(JSON, payload);
+        patcher.writeTo(OutputStream.nullOutputStream(), reply());
+        return patcher;
+    }
+}
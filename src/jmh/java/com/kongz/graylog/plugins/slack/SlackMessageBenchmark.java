@@ -0,0 +1,79 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing a message through a map and a string with writing it straight into
+ * request body chunks.
+ *
+ * <p>Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.includes="SlackMessage -prof gc"</code>
+ * to see allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlackMessageBenchmark {
+    private static final ObjectWriter WRITER = new ObjectMapper().writer();
+    private static final SlackJson JSON = new SlackJson();
+
+    private SlackMessage message;
+
+    @Setup
+    public void setUp() {
+        message = new SlackMessage("@siri <http://graylog/streams|All messages> Disk usage is high", "#alerts",
+                "Graylog", ":warning:", true);
+        StringBuilder line = new StringBuilder();
+        while (line.length() < 4096) {
+            line.append("2023-06-01T10:00:00.000Z server1 kernel: EXT4-fs warning (device sda1): \"quoted\" ");
+        }
+        for (int i = 0; i < 50; i++) {
+            SlackMessage.Attachment attachment = message.addAttachment(line.toString(), "#FF0000",
+                    "server" + i, null, 1685613600L + i, "id" + i, null);
+            attachment.addField(new SlackMessage.AttachmentField("source", "server" + i, true));
+            attachment.addField(new SlackMessage.AttachmentField("level", "3", true));
+        }
+    }
+
+    @Benchmark
+    public byte[] mapToString() throws Exception {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("text", message.text);
+        params.put("channel", message.channel);
+        params.put("username", message.username);
+        params.put("icon_url", message.iconUrl);
+        params.put("icon_emoji", message.iconEmoji);
+        params.put("link_names", message.linkNames);
+        params.put("parse", "none");
+        params.put("attachments", message.attachments);
+        return WRITER.writeValueAsString(params).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public SlackPayload streaming() {
+        return message.toPayload(JSON);
+    }
+
+    @Benchmark
+    public String jsonString() {
+        return message.getJsonString(JSON);
+    }
+}
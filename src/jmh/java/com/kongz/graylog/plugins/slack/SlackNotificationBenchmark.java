@@ -0,0 +1,80 @@
+package com.kongz.graylog.plugins.slack;
+
+import org.graylog.events.notifications.EventNotificationContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole of {@link SlackNotification#execute(EventNotificationContext)} without the network:
+ * backlog fields, header, attachment rendering, payload budget and JSON encoding. The backlog
+ * comes from memory and the message is encoded by a stub client instead of being posted.
+ *
+ * <p>Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.includes=SlackNotificationBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlackNotificationBenchmark {
+    @Param({"1", "20", "100"})
+    public int backlogSize;
+
+    @Param({"10"})
+    public int fieldCount;
+
+    @Param({"16", "256"})
+    public int fieldWidth;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private SlackNotification notification;
+    private EventNotificationContext context;
+    private StubClient client;
+
+    @Setup
+    public void setUp() {
+        client = new StubClient();
+        notification = BenchmarkFixtures.notification(BenchmarkFixtures.backlog(backlogSize, fieldCount, fieldWidth),
+                client, parallel);
+        context = BenchmarkFixtures.context(BenchmarkFixtures.config(backlogSize).build());
+    }
+
+    @Benchmark
+    public SlackPayload execute() throws Exception {
+        notification.execute(context);
+        return client.payload;
+    }
+
+    /**
+     * Encodes the message as the real client does and keeps it instead of posting it.
+     */
+    static class StubClient extends SlackClient {
+        private static final SlackJson JSON = new SlackJson();
+
+        SlackPayload payload;
+
+        StubClient() {
+            super(SlackDestination.create("https://hooks.slack.com/services/T0/B0/X", "", ""), null, JSON,
+                    null, null, null, null);
+        }
+
+        @Override
+        public void send(SlackMessage message) {
+            payload = message.toPayload(JSON);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.kongz.graylog.plugins.slack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing the notify users text on every call with applying a compiled template.
+ *
+ * <p>Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.includes=StringReplacement</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringReplacementBenchmark {
+    private static final String SOURCE = "${owner:-oncall} ${reviewer} ${team_lead:-} from ${source} at ${facility:-unknown}";
+
+    private Map<String, Object> fields;
+    private StringReplacement.Template template;
+
+    @Setup
+    public void setUp() {
+        fields = new HashMap<>();
+        fields.put("owner", "siri");
+        fields.put("reviewer", "john");
+        fields.put("source", "server1.example.com");
+        for (int i = 0; i < 50; i++) {
+            fields.put("field_" + i, "value_" + i);
+        }
+        template = StringReplacement.compile(SOURCE);
+    }
+
+    @Benchmark
+    public String legacy() {
+        return legacyReplaceWithPrefix(SOURCE, "@", fields);
+    }
+
+    @Benchmark
+    public String parseAndReplace() {
+        return StringReplacement.replaceWithPrefix(SOURCE, "@", fields);
+    }
+
+    @Benchmark
+    public String compiled() {
+        return template.replaceWithPrefix("@", fields);
+    }
+
+    /**
+     * The implementation before templates were compiled, kept as a baseline.
+     */
+    private static String legacyReplaceWithPrefix(String source, String prefix, Map<String, Object> valueMap) {
+        StringBuilder sb = new StringBuilder();
+        char[] strArray = source.toCharArray();
+        int i = 0;
+        while (i < strArray.length - 1) {
+            if (strArray[i] == '$' && strArray[i + 1] == '{') {
+                i = i + 2;
+                int begin = i;
+                while (strArray[i] != '}') ++i;
+                String exprString = source.substring(begin, i++);
+                String[] exprs = exprString.endsWith(":-")
+                        ? new String[] {exprString.substring(0, exprString.length() - 2), ""}
+                        : exprString.split(":-");
+                Object value = valueMap.get(exprs[0]);
+                if (value == null && exprs.length > 1) value = exprs[1];
+                if (value != null && !"".equals(value)) {
+                    if (prefix != null) sb.append(prefix);
+                    sb.append(value);
+                }
+            } else {
+                sb.append(strArray[i]);
+                ++i;
+            }
+        }
+        if (i < strArray.length) sb.append(strArray[i]);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.floreysoft.jmte.Engine;
+import org.graylog2.plugin.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMTE rendering of the footer and of a custom field of one backlog message, with templates
+ * parsed on every call as the engine does and with the parsed templates of {@link TemplateCache}.
+ *
+ * <p>Run with <code>mvn -Pjmh test-compile exec:exec -Djmh.includes=TemplateBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    private static final String FIELD = "${field_2}";
+
+    @Param({"10", "50"})
+    public int fieldCount;
+
+    @Param({"16", "256"})
+    public int fieldWidth;
+
+    private Engine engine;
+    private TemplateCache templateCache;
+    private Map<String, Object> fields;
+
+    @Setup
+    public void setUp() {
+        engine = new Engine();
+        templateCache = new TemplateCache(engine);
+        Message message = BenchmarkFixtures.backlog(1, fieldCount, fieldWidth).get(0).getRawMessage();
+        fields = new MessageFieldsView(BenchmarkFixtures.eventFields(), message);
+    }
+
+    @Benchmark
+    public String footerParsed() {
+        return engine.transform(BenchmarkFixtures.FOOTER, fields);
+    }
+
+    @Benchmark
+    public String footerCached() {
+        return templateCache.transform(BenchmarkFixtures.FOOTER, fields);
+    }
+
+    @Benchmark
+    public String fieldCached() {
+        return templateCache.transform(FIELD, fields);
+    }
+}
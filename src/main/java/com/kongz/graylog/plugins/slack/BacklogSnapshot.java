@@ -0,0 +1,88 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.codahale.metrics.Timer;
+
+import org.graylog.events.notifications.EventNotificationContext;
+import org.graylog.events.notifications.EventNotificationService;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+
+/**
+ * Backlog of a single notification execution. The backlog is searched at most once and the
+ * result is shared by every stage which renders the Slack message.
+ */
+public class BacklogSnapshot {
+  private final Supplier<List<MessageSummary>> loader;
+  private final int limit;
+  private List<MessageSummary> summaries;
+  private List<Message> messages;
+  private int queries = 0;
+
+  /**
+   * @param loader a function which searches the backlog
+   * @param limit maximum number of backlog items to keep, 0 to keep all
+   */
+  public BacklogSnapshot(Supplier<List<MessageSummary>> loader, int limit) {
+    this.loader = loader;
+    this.limit = limit;
+  }
+
+  public static BacklogSnapshot of(EventNotificationService service, EventNotificationContext ctx, int limit) {
+    return new BacklogSnapshot(() -> service.getBacklogForEvent(ctx), limit);
+  }
+
+  /**
+   * @param searchTimer timer of the backlog search
+   */
+  public static BacklogSnapshot of(EventNotificationService service, EventNotificationContext ctx, int limit,
+      Timer searchTimer) {
+    return new BacklogSnapshot(() -> {
+      try (Timer.Context ignored = searchTimer.time()) {
+        return service.getBacklogForEvent(ctx);
+      }
+    }, limit);
+  }
+
+  /**
+   * @return the backlog message summaries, limited to the configured number of items
+   */
+  public List<MessageSummary> summaries() {
+    if (summaries == null) {
+      queries++;
+      List<MessageSummary> backlog = loader.get();
+      if (backlog == null) {
+        backlog = Collections.emptyList();
+      } else if (limit > 0 && backlog.size() > limit) {
+        backlog = backlog.subList(0, limit);
+      }
+      summaries = backlog;
+    }
+    return summaries;
+  }
+
+  /**
+   * @return the raw backlog messages with <code>gl2_document_index</code> field added
+   */
+  public List<Message> messages() {
+    if (messages == null) {
+      messages = summaries().stream().map(ms -> {
+        Message m = ms.getRawMessage();
+        m.addField("gl2_document_index", ms.getIndex());
+        return m;
+      }).collect(Collectors.toList());
+    }
+    return messages;
+  }
+
+  /**
+   * @return number of backlog searches made by this snapshot
+   */
+  public int queries() {
+    return queries;
+  }
+}
@@ -0,0 +1,47 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.graylog.events.notifications.EventNotificationContext;
+import org.graylog.events.notifications.EventNotificationModelData;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.scheduler.JobTriggerDto;
+import org.graylog2.jackson.TypeReferences;
+
+/**
+ * Fields of the event which every backlog item can use in its templates, with the names and
+ * values {@link EventNotificationModelData} has after it is converted to a map.
+ *
+ * <p>The values are read from the context. Only the event is converted, because templates use its
+ * JSON names such as <code>${event.source}</code>. The backlog is left out, converting its messages
+ * costs more than rendering them.
+ */
+public final class EventFields {
+  private static final String UNKNOWN = "<unknown>";
+
+  private EventFields() {
+  }
+
+  /**
+   * @param ctx          context of the notification
+   * @param objectMapper Graylog's object mapper, it knows how to write the event
+   * @return a new map with <code>event_definition_*</code>, <code>job_*</code> and <code>event</code>
+   */
+  public static Map<String, Object> of(EventNotificationContext ctx, ObjectMapper objectMapper) {
+    Map<String, Object> fields = new HashMap<>();
+    Optional<EventDefinitionDto> definition = ctx.eventDefinition();
+    Optional<JobTriggerDto> trigger = ctx.jobTrigger();
+    fields.put("event_definition_id", definition.map(EventDefinitionDto::id).orElse(UNKNOWN));
+    fields.put("event_definition_type", definition.map(d -> d.config().type()).orElse(UNKNOWN));
+    fields.put("event_definition_title", definition.map(EventDefinitionDto::title).orElse(UNKNOWN));
+    fields.put("event_definition_description", definition.map(EventDefinitionDto::description).orElse(UNKNOWN));
+    fields.put("job_definition_id", trigger.map(JobTriggerDto::jobDefinitionId).orElse(UNKNOWN));
+    fields.put("job_trigger_id", trigger.map(JobTriggerDto::id).orElse(UNKNOWN));
+    fields.put("event", objectMapper.convertValue(ctx.event(), TypeReferences.MAP_STRING_OBJECT));
+    return fields;
+  }
+}
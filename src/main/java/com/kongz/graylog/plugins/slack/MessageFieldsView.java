@@ -0,0 +1,112 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.graylog2.plugin.Message;
+
+/**
+ * A read-only template model of a backlog message. Message fields are laid over the event fields
+ * which are shared by all backlog items, without copying either of them.
+ */
+public class MessageFieldsView extends AbstractMap<String, Object> {
+  private final Map<String, Object> eventFields;
+  private final Message message;
+  private Set<Entry<String, Object>> entrySet;
+
+  /**
+   * @param eventFields fields of the event, must not be modified while the view is used
+   * @param message a backlog message whose fields take precedence over event fields
+   */
+  public MessageFieldsView(Map<String, Object> eventFields, Message message) {
+    this.eventFields = eventFields;
+    this.message = message;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (key instanceof String) {
+      Object value = message.getField((String) key);
+      if (value != null) {
+        return value;
+      }
+    }
+    return eventFields.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return (key instanceof String && message.hasField((String) key)) || eventFields.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    int size = message.getFieldCount();
+    for (String key : eventFields.keySet()) {
+      if (!message.hasField(key)) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<String, Object>>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+          return MessageFieldsView.this.size();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  /**
+   * Iterates message fields first, then event fields which are not hidden by a message field.
+   */
+  private class EntryIterator implements Iterator<Entry<String, Object>> {
+    private final Iterator<Entry<String, Object>> messageEntries = message.getFieldsEntries().iterator();
+    private final Iterator<Entry<String, Object>> eventEntries = eventFields.entrySet().iterator();
+    private Entry<String, Object> next;
+
+    @Override
+    public boolean hasNext() {
+      if (next != null) {
+        return true;
+      }
+      if (messageEntries.hasNext()) {
+        next = messageEntries.next();
+        return true;
+      }
+      while (eventEntries.hasNext()) {
+        Entry<String, Object> entry = eventEntries.next();
+        if (!message.hasField(entry.getKey())) {
+          next = entry;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry<String, Object> entry = next;
+      next = null;
+      return new SimpleImmutableEntry<>(entry);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Splitter;
+
+import org.graylog2.plugin.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the notify users text of a notification into Slack mentions.
+ *
+ * <p>The text is rendered against every backlog message and the user names of all messages are
+ * collected first, so each distinct name is looked up once and mentioned once.
+ */
+public class NotifyUsersResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(NotifyUsersResolver.class);
+  private static final Splitter USER_SPLITTER = Splitter.on('@').trimResults().omitEmptyStrings();
+
+  private final StringReplacement.Template template;
+
+  /**
+   * @param notifyUsers notify users text, variables are prefixed with <code>@</code> when replaced
+   */
+  public NotifyUsersResolver(String notifyUsers) {
+    this.template = StringReplacement.compile(notifyUsers);
+  }
+
+  /**
+   * @param messages backlog messages, may be empty
+   * @param client a client to find Slack member IDs
+   * @return text to prepend to the Slack message, names are kept as text if the lookup fails
+   */
+  public String resolve(List<Message> messages, SlackClient client) {
+    if (messages.isEmpty()) {
+      return template.replace(Collections.emptyMap());
+    }
+    Set<String> texts = new LinkedHashSet<>();
+    Set<String> users = new LinkedHashSet<>();
+    for (Message message : messages) {
+      String rendered = template.replaceWithPrefix("@", new MessageFieldsView(Collections.emptyMap(), message));
+      if (rendered.indexOf('@') < 0) {
+        texts.add(rendered.trim());
+      } else {
+        USER_SPLITTER.split(rendered).forEach(users::add);
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String text : texts) {
+      if (!text.isEmpty()) {
+        sb.append(text).append(' ');
+      }
+    }
+    if (users.isEmpty()) {
+      return sb.toString();
+    }
+    try {
+      Set<String> mentioned = new LinkedHashSet<>();
+      for (Map.Entry<String, String> user : client.getSlackUsers(users).entrySet()) {
+        if (mentioned.add(user.getValue())) {
+          sb.append("<@").append(user.getValue()).append("> ");
+        }
+      }
+    } catch (SlackClient.SlackClientException e) {
+      LOG.error(e.getMessage(), e);
+      users.forEach(user -> sb.append('@').append(user).append(' '));
+    }
+    return sb.toString();
+  }
+}
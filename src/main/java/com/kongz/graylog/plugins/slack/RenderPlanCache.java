@@ -0,0 +1,29 @@
+package com.kongz.graylog.plugins.slack;
+
+import javax.inject.Singleton;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * {@link SlackRenderPlan} keyed by notification settings. The settings are read again for every
+ * event, so plans are keyed by value and a changed notification simply gets a new plan. Least
+ * recently used plans are evicted when the cache is full.
+ */
+@Singleton
+public class RenderPlanCache {
+  private static final int MAX_SIZE = 500;
+
+  private final LoadingCache<SlackNotificationConfig, SlackRenderPlan> plans = CacheBuilder.newBuilder()
+      .maximumSize(MAX_SIZE)
+      .build(CacheLoader.from(SlackRenderPlan::new));
+
+  /**
+   * @param configuration notification settings
+   * @return the render plan of the settings
+   */
+  public SlackRenderPlan get(SlackNotificationConfig configuration) {
+    return plans.getUnchecked(configuration);
+  }
+}
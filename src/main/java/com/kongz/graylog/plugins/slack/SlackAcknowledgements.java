@@ -0,0 +1,133 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Button clicks of each alert attachment seen by this node.
+ *
+ * <p>Every click carries the <code>original_message</code> as Slack showed it to that user, so
+ * clicks made at almost the same time would each answer with only their own reply and the last
+ * answer would hide the others. Clicks are added here instead and every answer is rendered from
+ * all clicks of the attachment. A state is never changed in place, a click replaces it with
+ * compare-and-set, so concurrent clicks neither block each other nor get lost. Slack delivers a
+ * click again when it is not answered in time, a click with a known <code>action_ts</code> of the
+ * same user is not added twice.
+ */
+@Singleton
+public class SlackAcknowledgements {
+  private final ConcurrentMap<String, Acknowledgement> states = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterAccess(1, TimeUnit.DAYS)
+      .<String, Acknowledgement>build()
+      .asMap();
+  private final Meter duplicates;
+
+  @Inject
+  public SlackAcknowledgements(MetricRegistry metricRegistry) {
+    this.duplicates = metricRegistry.meter(MetricRegistry.name(SlackAcknowledgements.class, "duplicates"));
+  }
+
+  /**
+   * Add a click to its attachment.
+   *
+   * @param action       the click, <code>callback_id</code> of an alert attachment is the ID of its
+   *                     backlog message
+   * @param acknowledged true if the user acknowledged, false if the user clicked "It is not me"
+   * @return all clicks of the attachment including this one
+   */
+  public Acknowledgement record(SlackActionPayload action, boolean acknowledged) {
+    String key = action.callbackId + '/' + action.attachmentId;
+    Click click = new Click(action.actionTs, action.user.id, action.user.name, acknowledged);
+    for (;;) {
+      Acknowledgement current = states.get(key);
+      if (current == null) {
+        Acknowledgement first = new Acknowledgement(key, ImmutableList.of(click));
+        if (states.putIfAbsent(key, first) == null) {
+          return first;
+        }
+      } else if (current.contains(click)) {
+        duplicates.mark();
+        return current;
+      } else {
+        Acknowledgement next = new Acknowledgement(key,
+            ImmutableList.<Click>builder().addAll(current.clicks).add(click).build());
+        if (states.replace(key, current, next)) {
+          return next;
+        }
+      }
+      // another click of the attachment came in between, try again on its state
+    }
+  }
+
+  /**
+   * @param recorded a state returned by {@link #record(SlackActionPayload, boolean)}
+   * @return the current state of the same attachment, it has the clicks recorded since
+   */
+  public Acknowledgement latest(Acknowledgement recorded) {
+    Acknowledgement current = states.get(recorded.key);
+    return current == null ? recorded : current;
+  }
+
+  /**
+   * Clicks of an attachment in the order they were recorded. Instances are immutable.
+   */
+  public static final class Acknowledgement {
+    private final String key;
+    private final List<Click> clicks;
+
+    private Acknowledgement(String key, List<Click> clicks) {
+      this.key = key;
+      this.clicks = clicks;
+    }
+
+    public List<Click> clicks() {
+      return clicks;
+    }
+
+    /**
+     * @return true if nobody said the alert is not theirs
+     */
+    public boolean isAcknowledged() {
+      for (Click click : clicks) {
+        if (!click.acknowledged) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean contains(Click click) {
+      for (Click c : clicks) {
+        if (Objects.equals(c.actionTs, click.actionTs) && Objects.equals(c.userId, click.userId)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  public static final class Click {
+    public final String actionTs;
+    public final String userId;
+    public final String userName;
+    public final boolean acknowledged;
+
+    Click(String actionTs, String userId, String userName, boolean acknowledged) {
+      this.actionTs = actionTs;
+      this.userId = userId;
+      this.userName = userName;
+      this.acknowledged = acknowledged;
+    }
+  }
+}
@@ -1,13 +1,14 @@
 package com.kongz.graylog.plugins.slack;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Lists;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.function.Supplier;
+import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.POST;
@@ -28,12 +29,25 @@ import org.graylog2.audit.jersey.AuditEvent;
  * https://{host}/api/plugins/org.graylog2.plugins.slack/action</code> in Slack's App Interactive
  * Messages request URL.
  *
+ * <p>With <code>slack_notification_action_async</code> the click is answered with an empty response
+ * and the message is updated by {@link SlackActionResponder}.
+ *
  * @author Siri C.
  */
 @Path("/action")
 public class SlackActionCallback extends RestResource implements PluginRestResource {
   private static final Logger LOG = LoggerFactory.getLogger(SlackActionCallback.class);
-  private static ObjectReader objectReader = new ObjectMapper().reader();
+
+  private final SlackAcknowledgements acknowledgements;
+  private final SlackActionResponder responder;
+  private final SlackJson json;
+
+  @Inject
+  public SlackActionCallback(SlackAcknowledgements acknowledgements, SlackActionResponder responder, SlackJson json) {
+    this.acknowledgements = acknowledgements;
+    this.responder = responder;
+    this.json = json;
+  }
 
   /**
    * Receive POST request from Slack when user click any buttons.
@@ -48,76 +62,25 @@ public class SlackActionCallback extends RestResource implements PluginRestResou
   public Response slackAction(@FormParam("payload") String payload) {
     try {
       if (LOG.isTraceEnabled()) LOG.trace("{}", payload);
-      SlackActionPayload slackPayload =
-          objectReader.forType(SlackActionPayload.class).readValue(payload);
+      // The original message is patched while it is copied to the response instead of being
+      // read into objects, alerts with many attachments are answered within Slack's deadline
+      SlackMessagePatcher patcher = SlackMessagePatcher.parse(json, payload);
+      SlackActionPayload slackPayload = patcher.action();
       List<SlackMessage.Action> actions = slackPayload.actions;
       if (actions != null) {
         for (SlackMessage.Action action : actions) {
-          // If user click `acknowledge` button
-          if ("acknowledge".equals(action.name) && "true".equals(action.value)) {
-            SlackMessage message = slackPayload.originalMessage;
-            int attachmentId = Integer.parseInt(slackPayload.attachmentId);
-            SlackMessage.Attachment attachment = message.attachments.get(attachmentId - 1);
-            attachment.actions = null; // remove action buttons
-            StringBuilder builder = new StringBuilder();
-            builder
-                .append(":white_check_mark: <")
-                .append('@')
-                .append(slackPayload.user.id)
-                .append('|')
-                .append(slackPayload.user.name)
-                .append("> *acknowledged*");
-            message
-                .insertAttachment(
-                    attachmentId,
-                    builder.toString(),
-                    "good",
-                    null,
-                    null,
-                    System.currentTimeMillis() / 1000)
-                .setMarkdownIn("text");
-            final StreamingOutput stream =
-                os -> {
-                  try (final OutputStreamWriter outputStreamWriter = new OutputStreamWriter(os, "UTF-8");
-                      final Writer writer = new BufferedWriter(outputStreamWriter)) {
-                    writer.append(message.getJsonString());
-                    writer.flush();
-                  }
-                };
-            return Response.ok(stream).type(MediaType.APPLICATION_JSON_TYPE).build();
-            // If user click other buttons
-          } else {
-            SlackMessage message = slackPayload.originalMessage;
-            int attachmentId = Integer.parseInt(slackPayload.attachmentId);
-            SlackMessage.Attachment attachment = message.attachments.get(attachmentId - 1);
-            attachment.actions = null; // remove action buttons
-            StringBuilder builder = new StringBuilder();
-            builder
-                .append(":x: <")
-                .append('@')
-                .append(slackPayload.user.id)
-                .append('|')
-                .append(slackPayload.user.name)
-                .append("> *It is not me!!* <!here>");
-            message
-                .insertAttachment(
-                    attachmentId,
-                    builder.toString(),
-                    "danger",
-                    null,
-                    null,
-                    System.currentTimeMillis() / 1000)
-                .setMarkdownIn("text");
-            final StreamingOutput stream =
-                os -> {
-                  try (final OutputStreamWriter outputStreamWriter = new OutputStreamWriter(os, StandardCharsets.UTF_8);
-                      final Writer writer = new BufferedWriter(outputStreamWriter)) {
-                    writer.append(message.getJsonString());
-                    writer.flush();
-                  }
-                };
-            return Response.ok(stream).type(MediaType.APPLICATION_JSON_TYPE).build();
+          // If user click `acknowledge` button, any other button means it is not theirs
+          boolean acknowledged = "acknowledge".equals(action.name) && "true".equals(action.value);
+          // Clicks on the same attachment are merged, and the reply is rendered when it is written
+          // so clicks recorded in the meantime are shown too
+          SlackAcknowledgements.Acknowledgement recorded = acknowledgements.record(slackPayload, acknowledged);
+          Supplier<SlackMessage.Attachment> reply = () -> reply(acknowledgements.latest(recorded));
+          if (responder.isEnabled() && responder.submit(patcher, reply)) {
+            // Slack only needs to know the click was received, the message is updated later
+            return Response.ok().build();
           }
+          final StreamingOutput stream = os -> patcher.writeTo(os, reply.get());
+          return Response.ok(stream).type(MediaType.APPLICATION_JSON_TYPE).build();
         }
       }
     } catch (RuntimeException | IOException e) {
@@ -135,4 +98,35 @@ public class SlackActionCallback extends RestResource implements PluginRestResou
         };
     return Response.ok(stream).type(MediaType.APPLICATION_JSON_TYPE).build();
   }
+
+  /**
+   * @param acknowledgement all clicks on the attachment
+   * @return an attachment with a line for each click
+   */
+  private static SlackMessage.Attachment reply(SlackAcknowledgements.Acknowledgement acknowledgement) {
+    StringBuilder builder = new StringBuilder();
+    for (SlackAcknowledgements.Click click : acknowledgement.clicks()) {
+      if (builder.length() > 0) {
+        builder.append('\n');
+      }
+      builder
+          .append(click.acknowledged ? ":white_check_mark: <" : ":x: <")
+          .append('@')
+          .append(click.userId)
+          .append('|')
+          .append(click.userName)
+          .append(click.acknowledged ? "> *acknowledged*" : "> *It is not me!!* <!here>");
+    }
+    return reply(builder.toString(), acknowledgement.isAcknowledged() ? "good" : "danger");
+  }
+
+  /**
+   * @param text  reply to the clicked button
+   * @param color color of the reply
+   * @return an attachment to insert after the clicked attachment
+   */
+  private static SlackMessage.Attachment reply(String text, String color) {
+    return new SlackMessage.Attachment(text, text, null, color, null, null, System.currentTimeMillis() / 1000,
+        Lists.newArrayList(), null, null, null).setMarkdownIn("text");
+  }
 }
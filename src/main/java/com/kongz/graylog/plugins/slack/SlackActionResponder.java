@@ -0,0 +1,293 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers button clicks outside of the REST threads.
+ *
+ * <p>{@link SlackActionCallback} answers Slack with an empty response at once and submits the
+ * patched message here. A worker posts it to the <code>response_url</code> of the click through
+ * the shared {@link SlackTransport}, so a busy Graylog node does not miss Slack's three seconds
+ * deadline. The queue is bounded, a click which does not fit is answered by the caller as before.
+ *
+ * <p>Answers to the same attachment are posted one after the other, so a slow post cannot overwrite
+ * a later one. Clicks which arrive while an answer is being posted are merged: only the last one
+ * is posted next, its reply is rendered from every click recorded until then.
+ */
+@Singleton
+public class SlackActionResponder {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackActionResponder.class);
+  private static final String RESPONSE_HOST = "hooks.slack.com";
+  private static final int ATTEMPTS = 3;
+  private static final long RETRY_DELAY_MS = 1000;
+  private static final long SCHEDULE_RETRY_DELAY_MS = 50;
+
+  private final boolean enabled;
+  private final int queueSize;
+  private final int workers;
+  private final String proxyAddress;
+  private final SlackClientFactory clientFactory;
+  private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+  private final Meter sent;
+  private final Meter merged;
+  private final Meter failed;
+  private final Meter rejected;
+  private volatile ThreadPoolExecutor executor;
+
+  @Inject
+  public SlackActionResponder(
+      @Named(SlackNotificationPluginConfiguration.ACTION_ASYNC) boolean enabled,
+      @Named(SlackNotificationPluginConfiguration.ACTION_QUEUE_SIZE) int queueSize,
+      @Named(SlackNotificationPluginConfiguration.ACTION_WORKERS) int workers,
+      @Named(SlackNotificationPluginConfiguration.ACTION_PROXY_ADDRESS) String proxyAddress,
+      SlackClientFactory clientFactory,
+      MetricRegistry metricRegistry) {
+    this.enabled = enabled;
+    this.queueSize = queueSize;
+    this.workers = workers;
+    this.proxyAddress = proxyAddress;
+    this.clientFactory = clientFactory;
+    this.sent = metricRegistry.meter(MetricRegistry.name(SlackActionResponder.class, "sent"));
+    this.merged = metricRegistry.meter(MetricRegistry.name(SlackActionResponder.class, "merged"));
+    this.failed = metricRegistry.meter(MetricRegistry.name(SlackActionResponder.class, "failed"));
+    this.rejected = metricRegistry.meter(MetricRegistry.name(SlackActionResponder.class, "rejected"));
+  }
+
+  /**
+   * @return true if clicks should be answered through <code>response_url</code>
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Queue the patched message to be posted to the <code>response_url</code> of the click.
+   *
+   * @param patcher the clicked message
+   * @param reply   attachment to insert after the clicked attachment, it is rendered when the
+   *                message is posted
+   * @return false if the click has no Slack <code>response_url</code> or the queue is full, the
+   * caller must answer the click itself
+   */
+  public boolean submit(SlackMessagePatcher patcher, Supplier<SlackMessage.Attachment> reply) {
+    URI responseUrl = responseUrl(patcher.action().responseUrl);
+    if (responseUrl == null) {
+      return false;
+    }
+    Answer answer = new Answer(responseUrl, patcher, reply);
+    String key = patcher.action().callbackId + '/' + patcher.action().attachmentId;
+    Lane[] started = new Lane[1];
+    lanes.compute(key, (k, lane) -> {
+      if (lane == null) {
+        lane = new Lane(k);
+        started[0] = lane;
+      } else if (lane.pending != null) {
+        merged.mark();
+      }
+      lane.pending = answer;
+      return lane;
+    });
+    return started[0] == null || schedule(started[0], answer);
+  }
+
+  /**
+   * Start a worker for a new lane. If the queue is full, the click is rejected unless another
+   * click was merged into it meanwhile: that click was accepted, so the lane is scheduled again
+   * and posted by the calling thread as a last resort.
+   *
+   * @return false if the click was rejected and the lane removed
+   */
+  private boolean schedule(Lane lane, Answer answer) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        executor().execute(() -> drain(lane));
+        return true;
+      } catch (RejectedExecutionException e) {
+        boolean[] removed = new boolean[1];
+        lanes.computeIfPresent(lane.key, (k, current) -> {
+          removed[0] = current == lane && current.pending == answer;
+          return removed[0] ? null : current;
+        });
+        if (removed[0]) {
+          rejected.mark();
+          LOG.warn("Slack action queue is full, the click is answered by the REST thread");
+          return false;
+        }
+        if (lanes.get(lane.key) != lane) {
+          // the responder was stopped
+          return true;
+        }
+      }
+      if (attempt >= ATTEMPTS) {
+        drain(lane);
+        return true;
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(SCHEDULE_RETRY_DELAY_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        drain(lane);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Post the pending answer of a lane until there is none. The lane stays in the map while it is
+   * drained, so answers of its attachment wait for it instead of starting another worker.
+   */
+  private void drain(Lane lane) {
+    while (true) {
+      Answer[] next = new Answer[1];
+      lanes.computeIfPresent(lane.key, (k, current) -> {
+        if (current != lane) {
+          return current;
+        }
+        next[0] = current.pending;
+        current.pending = null;
+        return next[0] == null ? null : current;
+      });
+      if (next[0] == null) {
+        return;
+      }
+      respond(next[0].responseUrl, next[0].patcher, next[0].reply);
+    }
+  }
+
+  /**
+   * The URL comes from the request body, only Slack is called back.
+   *
+   * @param responseUrl <code>response_url</code> of the click, may be null
+   * @return the URL or null if it is missing or does not point to Slack
+   */
+  static URI responseUrl(String responseUrl) {
+    if (responseUrl == null) {
+      return null;
+    }
+    try {
+      URI uri = new URI(responseUrl);
+      if ("https".equals(uri.getScheme()) && RESPONSE_HOST.equals(uri.getHost())) {
+        return uri;
+      }
+      LOG.warn("Ignored response_url <{}> which is not a Slack URL", responseUrl);
+    } catch (URISyntaxException e) {
+      LOG.warn("Invalid response_url <{}>", responseUrl);
+    }
+    return null;
+  }
+
+  private void respond(URI responseUrl, SlackMessagePatcher patcher, Supplier<SlackMessage.Attachment> reply) {
+    for (int attempt = 1; ; attempt++) {
+      long retryAfterMs = RETRY_DELAY_MS * attempt;
+      try {
+        SlackPayload payload = new SlackPayload();
+        patcher.writeTo(payload, reply.get(), true);
+        HttpResponse<String> response = clientFactory.transport(proxyAddress).post(responseUrl, "", payload);
+        int status = response.statusCode();
+        if (status == 200) {
+          sent.mark();
+          return;
+        }
+        if (status == 429) {
+          retryAfterMs = SlackClient.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+        } else if (status < 500) {
+          // the URL has expired or was used too often, retrying does not help
+          failed.mark();
+          LOG.error("Slack rejected the answer to a click with status {}: {}", status, response.body());
+          return;
+        }
+        if (attempt >= ATTEMPTS) {
+          failed.mark();
+          LOG.error("Could not answer a click after {} attempts, last status {}", attempt, status);
+          return;
+        }
+      } catch (SlackClient.SlackClientException | IOException | RuntimeException e) {
+        if (attempt >= ATTEMPTS) {
+          failed.mark();
+          LOG.error("Could not answer a click after {} attempts", attempt, e);
+          return;
+        }
+      }
+      try {
+        TimeUnit.MILLISECONDS.sleep(retryAfterMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failed.mark();
+        return;
+      }
+    }
+  }
+
+  private ThreadPoolExecutor executor() {
+    ThreadPoolExecutor current = executor;
+    if (current == null) {
+      synchronized (this) {
+        current = executor;
+        if (current == null) {
+          current = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(queueSize),
+              new ThreadFactoryBuilder().setNameFormat("slack-action-%d").setDaemon(true).build());
+          executor = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Stop the workers. Clicks which are still queued are not answered.
+   */
+  public synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    lanes.clear();
+  }
+
+  /**
+   * Answers of one attachment. The pending answer is only read and replaced inside the map entry
+   * of the lane.
+   */
+  private static final class Lane {
+    private final String key;
+    private Answer pending;
+
+    private Lane(String key) {
+      this.key = key;
+    }
+  }
+
+  private static final class Answer {
+    private final URI responseUrl;
+    private final SlackMessagePatcher patcher;
+    private final Supplier<SlackMessage.Attachment> reply;
+
+    private Answer(URI responseUrl, SlackMessagePatcher patcher, Supplier<SlackMessage.Attachment> reply) {
+      this.responseUrl = responseUrl;
+      this.patcher = patcher;
+      this.reply = reply;
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.graylog.events.notifications.EventNotificationException;
+import org.graylog.events.notifications.TemporaryEventNotificationException;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds Slack messages of the same notification, event definition and channel which are created
+ * within an aggregation window into one digest message.
+ *
+ * <p>The first message opens a window. Messages are buffered until the window ends, then a single
+ * message is sent with the text of the first message, the number of events and the attachments of
+ * the first events. If only one message was buffered, it is sent as it is.
+ *
+ * <p>Windows end on a thread of the aggregator, which also sends the digest when neither the outbox
+ * nor the delivery service is enabled. A digest which hits the Slack rate limit, an open circuit or
+ * a full queue is sent again later. A digest which cannot be sent is dropped and reported as a
+ * system notification, the notification of its events has already returned.
+ */
+@Singleton
+public class SlackAggregator {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackAggregator.class);
+  private static final int ATTEMPTS = 5;
+  private static final long RETRY_DELAY_MS = 30000;
+
+  private final SlackDeliveryService deliveryService;
+  private final SlackPayloadBudget payloadBudget;
+  private final SlackOutbox outbox;
+  private final NotificationService notificationService;
+  private final NodeId nodeId;
+  private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+  private final Meter buffered;
+  private final Meter digests;
+  private final Meter requeued;
+  private final Meter dropped;
+  private volatile ScheduledExecutorService scheduler;
+
+  @Inject
+  public SlackAggregator(SlackDeliveryService deliveryService, SlackPayloadBudget payloadBudget, SlackOutbox outbox,
+      NotificationService notificationService, NodeId nodeId, MetricRegistry metricRegistry) {
+    this(null, deliveryService, payloadBudget, outbox, notificationService, nodeId, metricRegistry);
+  }
+
+  SlackAggregator(ScheduledExecutorService scheduler, SlackDeliveryService deliveryService,
+      SlackPayloadBudget payloadBudget, SlackOutbox outbox, NotificationService notificationService, NodeId nodeId,
+      MetricRegistry metricRegistry) {
+    this.scheduler = scheduler;
+    this.deliveryService = deliveryService;
+    this.payloadBudget = payloadBudget;
+    this.outbox = outbox;
+    this.notificationService = notificationService;
+    this.nodeId = nodeId;
+    this.buffered = metricRegistry.meter(MetricRegistry.name(SlackAggregator.class, "buffered"));
+    this.digests = metricRegistry.meter(MetricRegistry.name(SlackAggregator.class, "digests"));
+    this.requeued = metricRegistry.meter(MetricRegistry.name(SlackAggregator.class, "requeued"));
+    this.dropped = metricRegistry.meter(MetricRegistry.name(SlackAggregator.class, "dropped"));
+  }
+
+  /**
+   * Buffer a message until the aggregation window of its key ends.
+   *
+   * @param key notification, event definition and channel of the message
+   * @param windowSeconds length of the aggregation window
+   * @param topItems maximum number of attachments in a digest
+   * @param notificationId notification of the message
+   * @param destination destination of the message
+   * @param client a client of the destination
+   * @param message the message
+   */
+  public void add(String key, int windowSeconds, int topItems, String notificationId, SlackDestination destination,
+      SlackClient client, SlackMessage message) {
+    buffered.mark();
+    windows.compute(key, (k, window) -> {
+      if (window == null) {
+        Window opened = new Window(windowSeconds, topItems, notificationId, destination, client, message);
+        scheduler().schedule(() -> flush(k, opened), windowSeconds, TimeUnit.SECONDS);
+        return opened;
+      }
+      window.add(message);
+      return window;
+    });
+  }
+
+  /**
+   * Send the messages of all open windows and stop the thread of the aggregator. Digests are sent
+   * once, they are not sent again if Slack cannot take them.
+   */
+  public void stop() {
+    for (String key : windows.keySet()) {
+      Window window = windows.remove(key);
+      if (window != null) {
+        send(window, digest(window), ATTEMPTS);
+      }
+    }
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
+  }
+
+  private void flush(String key, Window window) {
+    // Messages added after this point open a new window
+    if (windows.remove(key, window)) {
+      send(window, digest(window), 1);
+    }
+  }
+
+  private SlackMessage digest(Window window) {
+    SlackMessage message = window.digest();
+    if (window.count > 1) {
+      digests.mark();
+      // a digest can hold more attachments than a single message
+      payloadBudget.apply(message);
+    }
+    return message;
+  }
+
+  private void send(Window window, SlackMessage message, int attempt) {
+    Exception failure;
+    long retryAfterMs;
+    try {
+      if (outbox.isEnabled()) {
+        outbox.append(window.notificationId, message);
+      } else if (deliveryService.isEnabled()) {
+        deliveryService.submit(window.destination, window.client, message);
+      } else {
+        window.client.send(message);
+      }
+      return;
+    } catch (SlackClient.SlackRateLimitException e) {
+      failure = e;
+      retryAfterMs = e.getRetryAfterMs();
+    } catch (SlackClient.SlackCircuitOpenException e) {
+      failure = e;
+      retryAfterMs = e.getRetryAfterMs();
+    } catch (TemporaryEventNotificationException e) {
+      // the outbox or the queue of the destination is full
+      failure = e;
+      retryAfterMs = RETRY_DELAY_MS;
+    } catch (SlackClient.SlackClientException | EventNotificationException | RuntimeException e) {
+      drop(window, e);
+      return;
+    }
+    if (attempt >= ATTEMPTS) {
+      drop(window, failure);
+      return;
+    }
+    try {
+      scheduler().schedule(() -> send(window, message, attempt + 1), Math.max(1, retryAfterMs), TimeUnit.MILLISECONDS);
+      requeued.mark();
+      LOG.warn("Could not send {} aggregated event(s) to Slack {}, retrying in {}ms: {}", window.count,
+          window.destination, retryAfterMs, failure.getMessage());
+    } catch (RejectedExecutionException e) {
+      // node is shutting down
+      drop(window, failure);
+    }
+  }
+
+  private void drop(Window window, Exception e) {
+    dropped.mark();
+    LOG.error("Could not send {} aggregated event(s) to Slack {}, dropping them", window.count, window.destination, e);
+    String errorMessage = String.format("Error sending %d aggregated event(s) of Slack notification <%s>. %s",
+        window.count, window.notificationId, e.getMessage());
+    final Notification systemNotification = notificationService.buildNow()
+        .addNode(nodeId.toString())
+        .addType(Notification.Type.GENERIC)
+        .addSeverity(Notification.Severity.URGENT)
+        .addDetail("title", "SlackNotification Failed")
+        .addDetail("description", errorMessage);
+    notificationService.publishIfFirst(systemNotification);
+  }
+
+  private ScheduledExecutorService scheduler() {
+    ScheduledExecutorService current = scheduler;
+    if (current == null) {
+      synchronized (this) {
+        current = scheduler;
+        if (current == null) {
+          current = Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder().setNameFormat("slack-aggregator-%d").setDaemon(true).build());
+          scheduler = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Messages of one key. Guarded by the map entry of the key until it is removed.
+   */
+  private static final class Window {
+    private final int windowSeconds;
+    private final int topItems;
+    private final String notificationId;
+    private final SlackDestination destination;
+    private final SlackClient client;
+    private final SlackMessage first;
+    private final List<SlackMessage.Attachment> attachments = new ArrayList<>();
+    private int count;
+    private int dropped;
+
+    private Window(int windowSeconds, int topItems, String notificationId, SlackDestination destination,
+        SlackClient client, SlackMessage first) {
+      this.windowSeconds = windowSeconds;
+      this.topItems = topItems;
+      this.notificationId = notificationId;
+      this.destination = destination;
+      this.client = client;
+      this.first = first;
+      add(first);
+    }
+
+    private void add(SlackMessage message) {
+      count++;
+      for (SlackMessage.Attachment attachment : message.attachments) {
+        if (attachments.size() < topItems) {
+          attachments.add(attachment);
+        } else {
+          dropped++;
+        }
+      }
+    }
+
+    private SlackMessage digest() {
+      if (count == 1) {
+        return first;
+      }
+      StringBuilder text = new StringBuilder(first.text == null ? "" : first.text)
+          .append("\n_").append(count).append(" events in ").append(windowSeconds).append("s");
+      if (dropped > 0) {
+        text.append(", ").append(dropped).append(" more item(s) not shown");
+      }
+      text.append('_');
+      return new SlackMessage(text.toString(), first.channel, first.username, first.iconUrl, first.iconEmoji,
+          first.linkNames, attachments);
+    }
+  }
+}
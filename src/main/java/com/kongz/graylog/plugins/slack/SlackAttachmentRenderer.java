@@ -0,0 +1,130 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Renders the attachments of a backlog. Small backlogs are rendered by the caller. When parallel
+ * rendering is enabled, backlogs of at least the threshold size are split over a bounded fork-join
+ * pool which is shared by all notifications of the node. Attachments are always returned in the
+ * order of the backlog.
+ */
+@Singleton
+public class SlackAttachmentRenderer {
+  private final boolean parallel;
+  private final int parallelism;
+  private final int threshold;
+  private final Meter sequentialRenders;
+  private final Meter parallelRenders;
+  private volatile ForkJoinPool pool;
+
+  @Inject
+  public SlackAttachmentRenderer(
+      @Named(SlackNotificationPluginConfiguration.RENDER_PARALLEL) boolean parallel,
+      @Named(SlackNotificationPluginConfiguration.RENDER_PARALLELISM) int parallelism,
+      @Named(SlackNotificationPluginConfiguration.RENDER_PARALLEL_THRESHOLD) int threshold,
+      MetricRegistry metricRegistry) {
+    this.parallel = parallel;
+    this.parallelism = parallelism;
+    this.threshold = threshold;
+    this.sequentialRenders = metricRegistry.meter(MetricRegistry.name(SlackAttachmentRenderer.class, "sequential"));
+    this.parallelRenders = metricRegistry.meter(MetricRegistry.name(SlackAttachmentRenderer.class, "parallel"));
+  }
+
+  /**
+   * @param items backlog items
+   * @param renderer renders the attachment of an item, must be safe to call from several threads
+   * @return an attachment of every item, in the order of the items
+   */
+  public <T> List<SlackMessage.Attachment> render(List<T> items, Function<T, SlackMessage.Attachment> renderer) {
+    if (!parallel || items.size() < threshold) {
+      sequentialRenders.mark();
+      List<SlackMessage.Attachment> attachments = new ArrayList<>(items.size());
+      for (T item : items) {
+        attachments.add(renderer.apply(item));
+      }
+      return attachments;
+    }
+    parallelRenders.mark();
+    SlackMessage.Attachment[] attachments = new SlackMessage.Attachment[items.size()];
+    // a few slices per thread so a slow item does not leave the other threads idle
+    int slice = Math.max(1, items.size() / (parallelism * 4));
+    pool().invoke(new RenderSlice<>(items, renderer, attachments, 0, items.size(), slice));
+    return Arrays.asList(attachments);
+  }
+
+  private ForkJoinPool pool() {
+    ForkJoinPool current = pool;
+    if (current == null) {
+      synchronized (this) {
+        current = pool;
+        if (current == null) {
+          current = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("slack-render-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+          }, null, false);
+          pool = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Stop the render threads.
+   */
+  public synchronized void stop() {
+    if (pool != null) {
+      pool.shutdownNow();
+      pool = null;
+    }
+  }
+
+  private static final class RenderSlice<T> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> items;
+    private final Function<T, SlackMessage.Attachment> renderer;
+    private final SlackMessage.Attachment[] attachments;
+    private final int from;
+    private final int to;
+    private final int slice;
+
+    private RenderSlice(List<T> items, Function<T, SlackMessage.Attachment> renderer,
+        SlackMessage.Attachment[] attachments, int from, int to, int slice) {
+      this.items = items;
+      this.renderer = renderer;
+      this.attachments = attachments;
+      this.from = from;
+      this.to = to;
+      this.slice = slice;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= slice) {
+        for (int i = from; i < to; i++) {
+          attachments[i] = renderer.apply(items.get(i));
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new RenderSlice<>(items, renderer, attachments, from, middle, slice),
+          new RenderSlice<>(items, renderer, attachments, middle, to, slice));
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.graylog2.shared.rest.resources.RestResource;
+import org.graylog2.shared.security.RestPermissions;
+
+/**
+ * State of the Slack circuit breakers of this node at <code>
+ * https://{host}/api/plugins/org.graylog2.plugins.slack/circuit-breakers</code>. Webhook URLs and
+ * tokens are shown as the same hash which is used in the server log.
+ */
+@Path("/circuit-breakers")
+@RequiresAuthentication
+public class SlackCircuitBreakerResource extends RestResource implements PluginRestResource {
+  private final SlackCircuitBreakers circuitBreakers;
+
+  @Inject
+  public SlackCircuitBreakerResource(SlackCircuitBreakers circuitBreakers) {
+    this.circuitBreakers = circuitBreakers;
+  }
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  @RequiresPermissions(RestPermissions.EVENT_NOTIFICATIONS_READ)
+  public BreakerList list() {
+    return new BreakerList(circuitBreakers.breakers().stream()
+        .map(BreakerSummary::new)
+        .sorted(Comparator.comparing(b -> b.endpoint))
+        .collect(Collectors.toList()));
+  }
+
+  public static class BreakerList {
+    @JsonProperty("circuit_breakers")
+    public final List<BreakerSummary> circuitBreakers;
+
+    public BreakerList(List<BreakerSummary> circuitBreakers) {
+      this.circuitBreakers = circuitBreakers;
+    }
+  }
+
+  public static class BreakerSummary {
+    @JsonProperty("endpoint")
+    public final String endpoint;
+
+    @JsonProperty("state")
+    public final SlackCircuitBreakers.State state;
+
+    @JsonProperty("consecutive_failures")
+    public final int consecutiveFailures;
+
+    @JsonProperty("retry_after_ms")
+    public final long retryAfterMs;
+
+    public BreakerSummary(SlackCircuitBreakers.Breaker breaker) {
+      this.endpoint = breaker.name();
+      this.state = breaker.state();
+      this.consecutiveFailures = breaker.failures();
+      this.retryAfterMs = breaker.retryAfterMs();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breakers keyed by Slack webhook URL or token.
+ *
+ * <p>A breaker opens after a number of consecutive failed requests to its endpoint: connection
+ * errors, timeouts, 5xx responses and the responses of a revoked webhook or token. While it is open
+ * requests fail at once with {@link SlackClient.SlackCircuitOpenException} instead of waiting for
+ * the endpoint. After the open duration one trial request is let through. The breaker closes if the
+ * trial succeeds and opens again if it fails.
+ */
+@Singleton
+public class SlackCircuitBreakers {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackCircuitBreakers.class);
+  /** how long callers wait while the trial request of a half open breaker runs */
+  private static final long TRIAL_RETRY_MS = 1000;
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final Ticker ticker;
+  private final Cache<String, Breaker> breakers = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterAccess(1, TimeUnit.DAYS)
+      .build();
+  private final Meter opened;
+  private final Meter rejected;
+
+  @Inject
+  public SlackCircuitBreakers(
+      @Named(SlackNotificationPluginConfiguration.CIRCUIT_BREAKER_FAILURE_THRESHOLD) int failureThreshold,
+      @Named(SlackNotificationPluginConfiguration.CIRCUIT_BREAKER_OPEN_DURATION) Duration openDuration,
+      MetricRegistry metricRegistry) {
+    this(failureThreshold, openDuration.toMilliseconds(), metricRegistry, Ticker.systemTicker());
+  }
+
+  SlackCircuitBreakers(int failureThreshold, long openMs, MetricRegistry metricRegistry, Ticker ticker) {
+    checkArgument(failureThreshold > 0, "Circuit breaker failure threshold must be positive");
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+    this.ticker = ticker;
+    this.opened = metricRegistry.meter(MetricRegistry.name(SlackCircuitBreakers.class, "opened"));
+    this.rejected = metricRegistry.meter(MetricRegistry.name(SlackCircuitBreakers.class, "rejected"));
+    metricRegistry.gauge(MetricRegistry.name(SlackCircuitBreakers.class, "open"),
+        () -> (Gauge<Long>) () -> count(State.OPEN));
+    metricRegistry.gauge(MetricRegistry.name(SlackCircuitBreakers.class, "halfOpen"),
+        () -> (Gauge<Long>) () -> count(State.HALF_OPEN));
+  }
+
+  /**
+   * @param destination a Slack destination
+   * @return the breaker of the webhook URL or token of the destination
+   */
+  public Breaker get(SlackDestination destination) {
+    try {
+      return breakers.get(destination.key(), () -> new Breaker(destination.maskedKey()));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return all breakers which were used recently
+   */
+  public List<Breaker> breakers() {
+    return new ArrayList<>(breakers.asMap().values());
+  }
+
+  private long count(State state) {
+    return breakers.asMap().values().stream().filter(b -> b.state() == state).count();
+  }
+
+  /**
+   * @param statusCode HTTP status of a Slack response
+   * @return true if the status says the endpoint cannot take requests, rather than that one
+   *         request was invalid
+   */
+  static boolean isEndpointFailure(int statusCode) {
+    return statusCode >= 500 || statusCode == 401 || statusCode == 403 || statusCode == 404 || statusCode == 410;
+  }
+
+  /**
+   * Breaker of one endpoint.
+   */
+  public final class Breaker {
+    private final String name;
+    // guarded by this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialRunning;
+
+    private Breaker(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Fail if the breaker is open, without taking the trial request of a half open breaker.
+     */
+    public synchronized void check() throws SlackClient.SlackCircuitOpenException {
+      if (state == State.OPEN && retryAfterNanos() > 0) {
+        throw reject();
+      }
+    }
+
+    /**
+     * Let a request through or fail. A request which is let through must be followed by
+     * {@link #record(boolean)} or {@link #release()}.
+     */
+    public synchronized void acquire() throws SlackClient.SlackCircuitOpenException {
+      if (state == State.OPEN) {
+        if (retryAfterNanos() > 0) {
+          throw reject();
+        }
+        state = State.HALF_OPEN;
+        trialRunning = false;
+      }
+      if (state == State.HALF_OPEN) {
+        if (trialRunning) {
+          throw reject();
+        }
+        trialRunning = true;
+      }
+    }
+
+    /**
+     * @param success false if the request failed because of the endpoint
+     */
+    public synchronized void record(boolean success) {
+      if (success) {
+        if (state != State.CLOSED) {
+          LOG.info("Slack endpoint {} is reachable again, closing circuit breaker", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+        return;
+      }
+      failures++;
+      if (state == State.HALF_OPEN || failures >= failureThreshold) {
+        if (state != State.OPEN) {
+          opened.mark();
+          LOG.warn("Slack endpoint {} failed {} time(s) in a row, opening circuit breaker for {}ms", name, failures,
+              TimeUnit.NANOSECONDS.toMillis(openNanos));
+        }
+        state = State.OPEN;
+        openedAt = ticker.read();
+        trialRunning = false;
+      }
+    }
+
+    /**
+     * Give back a request which was let through but says nothing about the endpoint, for example
+     * because the caller was interrupted. A half open breaker lets the next trial request through.
+     */
+    public synchronized void release() {
+      if (state == State.HALF_OPEN) {
+        trialRunning = false;
+      }
+    }
+
+    /**
+     * @return masked webhook URL or token
+     */
+    public String name() {
+      return name;
+    }
+
+    public synchronized State state() {
+      return state;
+    }
+
+    public synchronized int failures() {
+      return failures;
+    }
+
+    /**
+     * @return milliseconds until an open breaker lets a trial request through, 0 if it is not open
+     */
+    public synchronized long retryAfterMs() {
+      return state == State.OPEN ? TimeUnit.NANOSECONDS.toMillis(Math.max(0, retryAfterNanos())) : 0;
+    }
+
+    private long retryAfterNanos() {
+      return openedAt + openNanos - ticker.read();
+    }
+
+    private SlackClient.SlackCircuitOpenException reject() {
+      rejected.mark();
+      long retryAfterMs = state == State.OPEN ? TimeUnit.NANOSECONDS.toMillis(retryAfterNanos()) : TRIAL_RETRY_MS;
+      return new SlackClient.SlackCircuitOpenException("Circuit breaker of Slack endpoint " + name
+          + " is open, retry after " + retryAfterMs + "ms", Math.max(1, retryAfterMs));
+    }
+  }
+}
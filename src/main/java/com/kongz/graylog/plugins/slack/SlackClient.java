@@ -2,26 +2,19 @@ package com.kongz.graylog.plugins.slack;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.util.concurrent.TimeUnit;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.MalformedURLException;
-import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.net.http.HttpResponse;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.Cache;
-import com.google.common.io.ByteStreams;
+import com.codahale.metrics.MetricRegistry;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,111 +23,198 @@ public class SlackClient {
   private static final Logger LOG = LoggerFactory.getLogger(SlackClient.class);
 
   private final String webhookUrl;
-  private final String proxyURL;
   private final String slackToken;
-  private ObjectMapper objectMapper = new ObjectMapper();
-  private static Cache<String, String> slackUserCache;
-
-  static {
-    slackUserCache = CacheBuilder.newBuilder()
-      .maximumSize(1000)
-      .expireAfterWrite(1, TimeUnit.HOURS)
-      .build();
+  private final SlackTransport transport;
+  private final SlackJson json;
+  private final SlackUserDirectory userDirectory;
+  private final SlackRateLimiter rateLimiter;
+  private final SlackCircuitBreakers.Breaker circuitBreaker;
+  private final MetricRegistry metricRegistry;
+
+  /**
+   * Use {@link SlackClientFactory} to get a shared client instead.
+   *
+   * @param destination Slack webhook URL or token
+   * @param transport a connection pool to Slack API
+   * @param json the plugin's object mapper
+   * @param userDirectory Slack members of the token's workspace, may be null
+   * @param rateLimiter limiter of sent messages, may be null
+   * @param circuitBreaker breaker of the webhook URL or token, may be null
+   * @param metricRegistry registry for request latency, may be null
+   */
+  SlackClient(SlackDestination destination, SlackTransport transport, SlackJson json,
+      SlackUserDirectory userDirectory, SlackRateLimiter rateLimiter, SlackCircuitBreakers.Breaker circuitBreaker,
+      MetricRegistry metricRegistry) {
+    this.webhookUrl = destination.webhookUrl();
+    this.slackToken = destination.token();
+    this.transport = transport;
+    this.json = json;
+    this.userDirectory = userDirectory;
+    this.rateLimiter = rateLimiter;
+    this.circuitBreaker = circuitBreaker;
+    this.metricRegistry = metricRegistry;
   }
 
-  public SlackClient(SlackNotificationConfig configuration) {
-    this.webhookUrl = configuration.webhookUrl();
-    this.proxyURL = configuration.proxyAddress();
-    this.slackToken = configuration.token();
+  SlackUserDirectory userDirectory() {
+    return userDirectory;
   }
 
-  private String postSlackApi(URL url, String jsonPayload) throws SlackClientException {
-    HttpURLConnection conn = null;
+  /**
+   * @param endpoint name of the API in metrics, never the webhook URL
+   */
+  private String postSlackApi(String endpoint, URI uri, SlackPayload jsonPayload) throws SlackClientException {
+    if (LOG.isTraceEnabled()) 
+      LOG.trace("{}", jsonPayload);
+    if (circuitBreaker != null) {
+      circuitBreaker.acquire();
+    }
+    // null until Slack answered or could not be reached
+    Boolean endpointFailed = null;
+    String status = "error";
+    long start = System.nanoTime();
     try {
-      if (!StringUtils.isEmpty(proxyURL)) {
-        final URI proxyUri = new URI(proxyURL);
-        InetSocketAddress sockAddress =
-            new InetSocketAddress(proxyUri.getHost(), proxyUri.getPort());
-        final Proxy proxy = new Proxy(Proxy.Type.HTTP, sockAddress);
-        conn = (HttpURLConnection) url.openConnection(proxy);
-      } else {
-        conn = (HttpURLConnection) url.openConnection();
-      }
-      conn.setDoOutput(true);
-      conn.setRequestMethod("POST");
-      conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-      if (!isNullOrEmpty(slackToken)) {
-        conn.setRequestProperty("Authorization", "Bearer " + slackToken);
+      final HttpResponse<String> httpResponse;
+      try {
+        httpResponse = transport.post(uri, slackToken, jsonPayload);
+      } catch (SlackClientException e) {
+        // an interrupted caller or an invalid request says nothing about Slack
+        if (e.getCause() instanceof IOException || e.getCause() instanceof TimeoutException) {
+          endpointFailed = true;
+        }
+        throw e;
       }
-    } catch (URISyntaxException | IOException e) {
-      throw new SlackClientException("Could not open connection to Slack API", e);
-    }
-    try (final Writer writer = new OutputStreamWriter(conn.getOutputStream(), StandardCharsets.UTF_8)) {
-      if (LOG.isTraceEnabled()) 
-        LOG.trace("{}", jsonPayload);
-      writer.write(jsonPayload);
-      writer.flush();
-    } catch (IOException e) {
-      throw new SlackClientException("Could not POST to Slack API", e);
-    }
-    // Parse response from Slack
-    try (final InputStream responseStream = conn.getInputStream()) {
-      final byte[] responseBytes = ByteStreams.toByteArray(responseStream);
-      String response = new String(responseBytes, StandardCharsets.UTF_8);
-      int responseCode = conn.getResponseCode();
+      // Parse response from Slack
+      String response = httpResponse.body();
+      int responseCode = httpResponse.statusCode();
+      status = String.valueOf(responseCode);
       LOG.debug("[{}] Received HTTP response body:\n{}", responseCode, response);
+      endpointFailed = SlackCircuitBreakers.isEndpointFailure(responseCode);
+      if (responseCode == 429) {
+        long retryAfterMs = parseRetryAfter(httpResponse.headers().firstValue("Retry-After").orElse(null));
+        throw new SlackRateLimitException("Slack API rate limited, retry after " + retryAfterMs + "ms", retryAfterMs);
+      }
       if (responseCode != 200) {
-        throw new SlackClientException("Unexpected HTTP response status " + responseCode);
+        throw new SlackResponseException("Unexpected HTTP response status " + responseCode, responseCode);
       }
       return response;
-    } catch (IOException e) {
-      throw new SlackClientException("Could not POST to Slack API", e);
+    } finally {
+      if (metricRegistry != null) {
+        metricRegistry.timer(MetricRegistry.name(SlackClient.class, "requests", endpoint, status))
+            .update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      if (circuitBreaker != null) {
+        if (endpointFailed == null) {
+          circuitBreaker.release();
+        } else {
+          circuitBreaker.record(!endpointFailed);
+        }
+      }
     }
   }
 
+  /**
+   * Fail at once if the circuit breaker of this client is open.
+   */
+  public void checkCircuit() throws SlackCircuitOpenException {
+    if (circuitBreaker != null) {
+      circuitBreaker.check();
+    }
+  }
+
+  /**
+   * @param retryAfter value of <code>Retry-After</code> header in seconds, may be null
+   * @return milliseconds to wait, 1 second if the header is missing or invalid
+   */
+  static long parseRetryAfter(String retryAfter) {
+    if (!isNullOrEmpty(retryAfter)) {
+      try {
+        return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+      } catch (NumberFormatException e) {
+        LOG.debug("Invalid Retry-After header <{}>", retryAfter);
+      }
+    }
+    return TimeUnit.SECONDS.toMillis(1);
+  }
+
   public String getSlackUser(String key) throws SlackClientException {
-    if (isNullOrEmpty(this.slackToken)) {
+    if (isNullOrEmpty(this.slackToken) || userDirectory == null) {
       return key;
     }
-    String id = slackUserCache.getIfPresent(key);
-    if (id == null) {
-      SlackCursorPayload cursorPayload = new SlackCursorPayload(200, "");
-      do {
-        try {
-          StringBuilder uriBuilder = new StringBuilder("https://slack.com/api/users.list")
-            .append("?limit=").append(cursorPayload.limit);
-          if (!"".equals(cursorPayload.cursor))
-            uriBuilder = uriBuilder.append("&cursor=").append(cursorPayload.cursor);
-          String response = postSlackApi(new URL(uriBuilder.toString()), "");
-          SlackUserList userList = objectMapper.readValue(response, SlackUserList.class);
-          for (SlackMember member : userList.members) {
-            if (Boolean.FALSE.equals(member.isBot)) {
-              slackUserCache.put(member.profile.displayName, member.id);
-            }
-          }
-          cursorPayload.cursor = userList.responseMetadata.nextCursor;
-        } catch (IOException e) {
-          LOG.error(e.getMessage(), e);
-          throw new SlackClientException("Error while reading Slack users list", e);
-        }
-      } while (!"".equals(cursorPayload.cursor));
-      id = slackUserCache.getIfPresent(key);
-    }
+    String id = userDirectory.lookup(key);
     return id == null ? key : id;
   }
 
+  /**
+   * Find Slack member IDs of many users in one pass.
+   *
+   * @param keys display names, real names or emails
+   * @return member ID by key, a key which is not found maps to itself
+   */
+  public Map<String, String> getSlackUsers(Collection<String> keys) throws SlackClientException {
+    Map<String, String> ids = new LinkedHashMap<>();
+    Map<String, String> found = isNullOrEmpty(this.slackToken) || userDirectory == null
+      ? Collections.emptyMap()
+      : userDirectory.lookupAll(keys);
+    for (String key : keys) {
+      ids.put(key, found.getOrDefault(key, key));
+    }
+    return ids;
+  }
+
+  /**
+   * Read a page of Slack <code>users.list</code> API.
+   *
+   * @param limit maximum number of members in a page
+   * @param cursor cursor from previous page or empty string for the first page
+   * @return a page of members
+   */
+  public SlackUserList listUsers(int limit, String cursor) throws SlackClientException {
+    try {
+      StringBuilder uriBuilder = new StringBuilder("https://slack.com/api/users.list")
+        .append("?limit=").append(limit);
+      if (!isNullOrEmpty(cursor))
+        uriBuilder = uriBuilder.append("&cursor=").append(cursor);
+      String response = postSlackApi("users.list", new URI(uriBuilder.toString()), new SlackPayload());
+      SlackUserList userList = json.userListReader().readValue(response);
+      if (userList.members == null) {
+        throw new SlackClientException("Error while reading Slack users list: " + response);
+      }
+      return userList;
+    } catch (IOException | URISyntaxException e) {
+      LOG.error(e.getMessage(), e);
+      throw new SlackClientException("Error while reading Slack users list", e);
+    }
+  }
+
   public void send(SlackMessage message) throws SlackClientException {
-    final URL url;
+    final URI uri;
+    final String endpoint;
     try {
       if (isNullOrEmpty(slackToken)) {
-        url = new URL(webhookUrl);
+        uri = new URI(webhookUrl);
+        endpoint = "webhook";
       } else {
-        url = new URL("https://slack.com/api/chat.postMessage");
+        uri = new URI("https://slack.com/api/chat.postMessage");
+        endpoint = "chat.postMessage";
       }
-    } catch (MalformedURLException e) {
+    } catch (URISyntaxException | IllegalArgumentException e) {
       throw new SlackClientException("Error while constructing webhook URL.", e);
     }
-    postSlackApi(url, message.getJsonString());
+    String key = isNullOrEmpty(slackToken) ? webhookUrl : slackToken;
+    String channel = isNullOrEmpty(message.channel) ? "" : message.channel;
+    // do not wait for the rate limit of an endpoint which is down
+    checkCircuit();
+    if (rateLimiter != null) {
+      rateLimiter.acquire(key, channel);
+    }
+    try {
+      postSlackApi(endpoint, uri, message.toPayload(json));
+    } catch (SlackRateLimitException e) {
+      if (rateLimiter != null) {
+        rateLimiter.pause(key, channel, e.getRetryAfterMs());
+      }
+      throw e;
+    }
   }
 
   public static class SlackClientException extends Exception {
@@ -148,4 +228,74 @@ public class SlackClient {
       super(msg, cause);
     }
   }
+
+  /**
+   * Slack answered a request with an unexpected HTTP status.
+   */
+  public static class SlackResponseException extends SlackClientException {
+    private static final long serialVersionUID = 4148723128396738l;
+
+    private final int statusCode;
+
+    public SlackResponseException(String msg, int statusCode) {
+      super(msg);
+      this.statusCode = statusCode;
+    }
+
+    /**
+     * @return HTTP status of the response
+     */
+    public int getStatusCode() {
+      return statusCode;
+    }
+
+    /**
+     * @return true if Slack will reject the same request again
+     */
+    public boolean isClientError() {
+      return statusCode >= 400 && statusCode < 500;
+    }
+  }
+
+  /**
+   * The circuit breaker of the endpoint is open, the request was not sent.
+   */
+  public static class SlackCircuitOpenException extends SlackClientException {
+    private static final long serialVersionUID = 4148723128396739l;
+
+    private final long retryAfterMs;
+
+    public SlackCircuitOpenException(String msg, long retryAfterMs) {
+      super(msg);
+      this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @return milliseconds until the breaker lets a request through
+     */
+    public long getRetryAfterMs() {
+      return retryAfterMs;
+    }
+  }
+
+  /**
+   * Slack rejected a request because of rate limit, or the request would exceed it.
+   */
+  public static class SlackRateLimitException extends SlackClientException {
+    private static final long serialVersionUID = 4148723128396737l;
+
+    private final long retryAfterMs;
+
+    public SlackRateLimitException(String msg, long retryAfterMs) {
+      super(msg);
+      this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * @return milliseconds to wait before the next request
+     */
+    public long getRetryAfterMs() {
+      return retryAfterMs;
+    }
+  }
 }
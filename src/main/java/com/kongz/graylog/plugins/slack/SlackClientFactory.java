@@ -0,0 +1,197 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Shares {@link SlackClient} instances between notifications. Clients are keyed by
+ * {@link SlackDestination}, clients behind the same proxy share one {@link SlackTransport} and
+ * clients with the same token share one {@link SlackUserDirectory}. All clients share one
+ * {@link SlackRateLimiter}, and clients of the same webhook URL or token share a circuit breaker.
+ *
+ * <p>A user directory lives as long as clients of its token are used. Every client lookup touches
+ * the directory of the token, and when a directory is evicted the clients which hold it are
+ * evicted too, so no cached client keeps a stopped directory. Directories are reloaded on a
+ * thread of the factory, a reload blocks on <code>users.list</code>.
+ */
+@Singleton
+public class SlackClientFactory {
+  private final Cache<SlackDestination, SlackClient> clients;
+  private final Cache<String, SlackTransport> transports;
+  private final Cache<String, SlackUserDirectory> userDirectories;
+  private final MetricRegistry metricRegistry;
+  private final java.time.Duration connectTimeout;
+  private final java.time.Duration readTimeout;
+  private final java.time.Duration totalTimeout;
+  private final boolean http2Enabled;
+  private final long userDirectoryFullLoadIntervalMs;
+  private final long userDirectoryMissTtlMs;
+  private final SlackRateLimiter rateLimiter;
+  private final SlackCircuitBreakers circuitBreakers;
+  private final SlackJson json;
+  // guarded by this
+  private ScheduledExecutorService scheduler;
+  private boolean stopped;
+
+  @Inject
+  public SlackClientFactory(
+      @Named(SlackNotificationPluginConfiguration.HTTP_CONNECT_TIMEOUT) Duration connectTimeout,
+      @Named(SlackNotificationPluginConfiguration.HTTP_READ_TIMEOUT) Duration readTimeout,
+      @Named(SlackNotificationPluginConfiguration.HTTP_TOTAL_TIMEOUT) Duration totalTimeout,
+      @Named(SlackNotificationPluginConfiguration.HTTP2_ENABLED) boolean http2Enabled,
+      @Named(SlackNotificationPluginConfiguration.USER_DIRECTORY_FULL_LOAD_INTERVAL) Duration userDirectoryFullLoadInterval,
+      @Named(SlackNotificationPluginConfiguration.USER_DIRECTORY_MISS_TTL) Duration userDirectoryMissTtl,
+      @Named(SlackNotificationPluginConfiguration.RATE_LIMIT_PER_CHANNEL) double rateLimitPerChannel,
+      @Named(SlackNotificationPluginConfiguration.RATE_LIMIT_PER_TOKEN) double rateLimitPerToken,
+      @Named(SlackNotificationPluginConfiguration.RATE_LIMIT_BURST) int rateLimitBurst,
+      @Named(SlackNotificationPluginConfiguration.RATE_LIMIT_MAX_WAIT) Duration rateLimitMaxWait,
+      SlackCircuitBreakers circuitBreakers,
+      SlackJson json,
+      MetricRegistry metricRegistry) {
+    this(connectTimeout, readTimeout, totalTimeout, http2Enabled, userDirectoryFullLoadInterval, userDirectoryMissTtl,
+        rateLimitPerChannel, rateLimitPerToken, rateLimitBurst, rateLimitMaxWait, circuitBreakers, json, metricRegistry,
+        Ticker.systemTicker());
+  }
+
+  SlackClientFactory(Duration connectTimeout, Duration readTimeout, Duration totalTimeout, boolean http2Enabled,
+      Duration userDirectoryFullLoadInterval, Duration userDirectoryMissTtl, double rateLimitPerChannel,
+      double rateLimitPerToken, int rateLimitBurst, Duration rateLimitMaxWait, SlackCircuitBreakers circuitBreakers,
+      SlackJson json, MetricRegistry metricRegistry, Ticker ticker) {
+    this.clients = CacheBuilder.newBuilder()
+        .maximumSize(500)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .ticker(ticker)
+        .build();
+    this.transports = CacheBuilder.newBuilder()
+        .maximumSize(50)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .ticker(ticker)
+        .build();
+    this.userDirectories = CacheBuilder.newBuilder()
+        .maximumSize(50)
+        .expireAfterAccess(1, TimeUnit.DAYS)
+        .ticker(ticker)
+        .removalListener(this::evicted)
+        .build();
+    this.connectTimeout = java.time.Duration.ofMillis(connectTimeout.toMilliseconds());
+    this.readTimeout = java.time.Duration.ofMillis(readTimeout.toMilliseconds());
+    this.totalTimeout = java.time.Duration.ofMillis(totalTimeout.toMilliseconds());
+    this.http2Enabled = http2Enabled;
+    this.userDirectoryFullLoadIntervalMs = userDirectoryFullLoadInterval.toMilliseconds();
+    this.userDirectoryMissTtlMs = userDirectoryMissTtl.toMilliseconds();
+    this.rateLimiter = new SlackRateLimiter(rateLimitPerChannel, rateLimitPerToken, rateLimitBurst,
+        rateLimitMaxWait.toMilliseconds());
+    this.circuitBreakers = circuitBreakers;
+    this.json = json;
+    this.metricRegistry = metricRegistry;
+  }
+
+  public SlackClient get(SlackNotificationConfig configuration) throws SlackClient.SlackClientException {
+    return get(SlackDestination.of(configuration));
+  }
+
+  public SlackClient get(SlackDestination destination) throws SlackClient.SlackClientException {
+    SlackClient client;
+    try {
+      client = clients.get(destination, () -> {
+        SlackTransport transport = transport(destination.proxyAddress());
+        return new SlackClient(destination, transport, json, userDirectory(destination, transport), rateLimiter,
+            circuitBreakers.get(destination), metricRegistry);
+      });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+    if (!isNullOrEmpty(destination.token())) {
+      // keeps the directory of a client in use from expiring
+      userDirectories.getIfPresent(destination.token());
+    }
+    return client;
+  }
+
+  /**
+   * @param proxyAddress proxy address, may be empty
+   * @return a shared connection pool to Slack API
+   */
+  public SlackTransport transport(String proxyAddress) throws SlackClient.SlackClientException {
+    try {
+      return transports.get(proxyAddress,
+          () -> new SlackTransport(proxyAddress, http2Enabled, connectTimeout, readTimeout, totalTimeout));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      throw unwrap(e);
+    }
+  }
+
+  private SlackUserDirectory userDirectory(SlackDestination destination, SlackTransport transport)
+      throws ExecutionException {
+    if (isNullOrEmpty(destination.token())) {
+      return null;
+    }
+    return userDirectories.get(destination.token(), () -> {
+      // The directory only reads users.list so its client does not need a webhook or a directory
+      SlackDestination directoryDestination = SlackDestination.create("", destination.token(), destination.proxyAddress());
+      SlackClient client = new SlackClient(directoryDestination, transport, json, null, null,
+          circuitBreakers.get(directoryDestination), metricRegistry);
+      // Nothing is loaded until a notification of the token mentions users
+      return new SlackUserDirectory(client, scheduler(), userDirectoryFullLoadIntervalMs, userDirectoryMissTtlMs,
+          metricRegistry);
+    });
+  }
+
+  /**
+   * Stop an evicted directory and evict the clients which hold it, the next client of the token
+   * gets a new directory.
+   */
+  private void evicted(RemovalNotification<String, SlackUserDirectory> notification) {
+    if (notification.wasEvicted()) {
+      clients.asMap().entrySet()
+          .removeIf(entry -> entry.getValue().userDirectory() == notification.getValue());
+    }
+    notification.getValue().stop();
+  }
+
+  private synchronized ScheduledExecutorService scheduler() {
+    if (scheduler == null && !stopped) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("slack-user-directory-%d").setDaemon(true).build());
+    }
+    return scheduler;
+  }
+
+  /**
+   * Stop reloading the user directories of all tokens.
+   */
+  public void stop() {
+    userDirectories.invalidateAll();
+    synchronized (this) {
+      stopped = true;
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
+  }
+
+  private static SlackClient.SlackClientException unwrap(Exception e) {
+    if (e.getCause() instanceof SlackClient.SlackClientException) {
+      return (SlackClient.SlackClientException) e.getCause();
+    }
+    return new SlackClient.SlackClientException("Could not create Slack client", e.getCause());
+  }
+}
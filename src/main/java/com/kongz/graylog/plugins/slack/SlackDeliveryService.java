@@ -0,0 +1,345 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.graylog.events.notifications.TemporaryEventNotificationException;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends Slack messages outside of the event scheduler thread.
+ *
+ * <p>Each destination has its own bounded queue. A queue is drained by at most one worker at a
+ * time so messages to the same destination keep their order, while different destinations are
+ * sent in parallel by the worker pool. When a queue is full, the configured back-pressure decides
+ * whether the caller waits, the oldest queued message is dropped or the notification fails with
+ * {@link TemporaryEventNotificationException} so the scheduler retries it later. A message which
+ * still cannot be sent is counted as failed and reported as a system notification. The queue of a
+ * destination is removed once it is idle.
+ */
+@Singleton
+public class SlackDeliveryService {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackDeliveryService.class);
+  private static final int DRAIN_BATCH = 20;
+  private static final int RATE_LIMIT_ATTEMPTS = 3;
+
+  public enum BackPressure {
+    BLOCK, DROP_OLDEST, FAIL;
+
+    public static BackPressure of(String value) {
+      try {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException | NullPointerException e) {
+        throw new IllegalArgumentException("Unknown Slack delivery back-pressure <" + value
+            + ">, expected block, drop_oldest or fail", e);
+      }
+    }
+  }
+
+  private final boolean enabled;
+  private final int queueSize;
+  private final BackPressure backPressure;
+  private final long blockTimeoutMs;
+  private final int workers;
+  private final boolean virtualThreads;
+  private final ConcurrentMap<SlackDestination, Lane> lanes = new ConcurrentHashMap<>();
+  private final NotificationService notificationService;
+  private final NodeId nodeId;
+  private final Meter sent;
+  private final Meter failed;
+  private final Meter dropped;
+  private final Meter rejected;
+  private final Counter queued;
+  private volatile ExecutorService executor;
+  private volatile boolean stopped;
+
+  @Inject
+  public SlackDeliveryService(
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_ASYNC) boolean enabled,
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_QUEUE_SIZE) int queueSize,
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_WORKERS) int workers,
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_VIRTUAL_THREADS) boolean virtualThreads,
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_BACK_PRESSURE) String backPressure,
+      @Named(SlackNotificationPluginConfiguration.DELIVERY_BLOCK_TIMEOUT) Duration blockTimeout,
+      NotificationService notificationService,
+      NodeId nodeId,
+      MetricRegistry metricRegistry) {
+    this.enabled = enabled;
+    this.queueSize = queueSize;
+    this.workers = workers;
+    this.virtualThreads = virtualThreads;
+    this.backPressure = BackPressure.of(backPressure);
+    this.blockTimeoutMs = blockTimeout.toMilliseconds();
+    this.notificationService = notificationService;
+    this.nodeId = nodeId;
+    this.sent = metricRegistry.meter(MetricRegistry.name(SlackDeliveryService.class, "sent"));
+    this.failed = metricRegistry.meter(MetricRegistry.name(SlackDeliveryService.class, "failed"));
+    this.dropped = metricRegistry.meter(MetricRegistry.name(SlackDeliveryService.class, "dropped"));
+    this.rejected = metricRegistry.meter(MetricRegistry.name(SlackDeliveryService.class, "rejected"));
+    this.queued = metricRegistry.counter(MetricRegistry.name(SlackDeliveryService.class, "queued"));
+  }
+
+  /**
+   * @return true if messages should be queued instead of sent by the caller
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Queue a message to be sent by the worker pool.
+   *
+   * @param destination destination of the message, messages of a destination are sent in order
+   * @param client a client of the destination
+   * @param message the message
+   * @throws TemporaryEventNotificationException if the queue is full and cannot take the message or
+   *     the service was stopped
+   */
+  public void submit(SlackDestination destination, SlackClient client, SlackMessage message)
+      throws TemporaryEventNotificationException {
+    if (stopped) {
+      rejected.mark();
+      throw new TemporaryEventNotificationException("Slack delivery is stopped");
+    }
+    Lane lane = acquire(destination);
+    try {
+      offer(lane, new Delivery(client, message));
+    } finally {
+      lane.users.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the lane of the destination, which is not removed until it is released
+   */
+  private Lane acquire(SlackDestination destination) {
+    while (true) {
+      Lane lane = lanes.computeIfAbsent(destination, Lane::new);
+      int users = lane.users.get();
+      if (users >= 0 && lane.users.compareAndSet(users, users + 1)) {
+        return lane;
+      }
+      // The lane is being removed, the next lookup creates a new one
+      Thread.onSpinWait();
+    }
+  }
+
+  private void offer(Lane lane, Delivery delivery) throws TemporaryEventNotificationException {
+    switch (backPressure) {
+      case BLOCK:
+        try {
+          if (!lane.queue.offer(delivery, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+            rejected.mark();
+            throw new TemporaryEventNotificationException("Slack delivery queue of " + lane.name
+                + " is still full after " + blockTimeoutMs + "ms");
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new TemporaryEventNotificationException("Interrupted while waiting for Slack delivery queue", e);
+        }
+        break;
+      case DROP_OLDEST:
+        while (!lane.queue.offer(delivery)) {
+          if (lane.queue.poll() != null) {
+            queued.dec();
+            dropped.mark();
+            LOG.warn("Slack delivery queue of {} is full, dropped the oldest message", lane.name);
+          }
+        }
+        break;
+      default:
+        if (!lane.queue.offer(delivery)) {
+          rejected.mark();
+          throw new TemporaryEventNotificationException("Slack delivery queue of " + lane.name + " is full");
+        }
+    }
+    queued.inc();
+    try {
+      schedule(lane);
+    } catch (RejectedExecutionException e) {
+      if (lane.queue.remove(delivery)) {
+        queued.dec();
+      }
+      rejected.mark();
+      throw new TemporaryEventNotificationException("Slack delivery is stopped", e);
+    }
+  }
+
+  private void schedule(Lane lane) {
+    if (lane.scheduled.compareAndSet(false, true)) {
+      try {
+        executor().execute(() -> drain(lane));
+      } catch (RejectedExecutionException e) {
+        lane.scheduled.set(false);
+        throw e;
+      }
+    }
+  }
+
+  private void drain(Lane lane) {
+    for (int i = 0; i < DRAIN_BATCH; i++) {
+      Delivery delivery = lane.queue.poll();
+      if (delivery == null) {
+        break;
+      }
+      queued.dec();
+      deliver(lane, delivery);
+    }
+    lane.scheduled.set(false);
+    // A message may have been queued after the last poll but before the lane was released.
+    // Re-schedule instead of looping so other destinations get a turn on the worker.
+    if (!lane.queue.isEmpty()) {
+      try {
+        schedule(lane);
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Slack delivery is stopped, {} messages to {} are not sent", lane.queue.size(), lane.name);
+      }
+    } else if (lane.users.compareAndSet(0, -1)) {
+      // No caller can queue a message now, remove the lane unless one was queued before
+      if (lane.queue.isEmpty() && !lane.scheduled.get()) {
+        lanes.remove(lane.destination, lane);
+      } else {
+        lane.users.set(0);
+      }
+    }
+  }
+
+  private void deliver(Lane lane, Delivery delivery) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        delivery.client.send(delivery.message);
+        sent.mark();
+        return;
+      } catch (SlackClient.SlackRateLimitException e) {
+        // The lane is owned by this worker, waiting here delays only this destination
+        if (attempt >= RATE_LIMIT_ATTEMPTS) {
+          fail(lane, "rate limited " + attempt + " times", e);
+          return;
+        }
+        try {
+          TimeUnit.MILLISECONDS.sleep(e.getRetryAfterMs());
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          failed.mark();
+          return;
+        }
+      } catch (SlackClient.SlackClientException | RuntimeException e) {
+        fail(lane, e.getMessage(), e);
+        return;
+      }
+    }
+  }
+
+  private void fail(Lane lane, String error, Exception e) {
+    failed.mark();
+    LOG.error("Could not send message to Slack {}: {}", lane.name, error, e);
+    String errorMessage = String.format("Could not send a queued message to Slack %s. %s", lane.name, error);
+    final Notification systemNotification = notificationService.buildNow()
+        .addNode(nodeId.toString())
+        .addType(Notification.Type.GENERIC)
+        .addSeverity(Notification.Severity.URGENT)
+        .addDetail("title", "SlackNotification Failed")
+        .addDetail("description", errorMessage);
+    notificationService.publishIfFirst(systemNotification);
+  }
+
+  private ExecutorService executor() {
+    ExecutorService current = executor;
+    if (current == null) {
+      synchronized (this) {
+        current = executor;
+        if (stopped) {
+          throw new RejectedExecutionException("Slack delivery is stopped");
+        }
+        if (current == null) {
+          current = Executors.newFixedThreadPool(workers, threadFactory());
+          executor = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * @return the number of destinations with queued or recently sent messages
+   */
+  int laneCount() {
+    return lanes.size();
+  }
+
+  private ThreadFactory threadFactory() {
+    if (virtualThreads) {
+      // Thread.ofVirtual() is only available on JDK 21 and later, the plugin is built for JDK 17
+      try {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "slack-delivery-", 0L);
+        Method factory = builderClass.getMethod("factory");
+        return (ThreadFactory) factory.invoke(builder);
+      } catch (ReflectiveOperationException e) {
+        LOG.warn("Virtual threads are not available on this JVM, Slack delivery uses platform threads");
+      }
+    }
+    return new ThreadFactoryBuilder().setNameFormat("slack-delivery-%d").setDaemon(true).build();
+  }
+
+  /**
+   * Stop the workers. Messages which are still queued are not sent and new messages are rejected.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private final class Lane {
+    private final SlackDestination destination;
+    private final String name;
+    private final BlockingQueue<Delivery> queue = new ArrayBlockingQueue<>(queueSize);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // callers using the lane, -1 once it is removed
+    private final AtomicInteger users = new AtomicInteger();
+
+    private Lane(SlackDestination destination) {
+      this.destination = destination;
+      this.name = destination.toString();
+    }
+  }
+
+  private static final class Delivery {
+    private final SlackClient client;
+    private final SlackMessage message;
+
+    private Delivery(SlackClient client, SlackMessage message) {
+      this.client = client;
+      this.message = message;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Where a Slack message is delivered to. Two notifications with the same webhook URL, token and
+ * proxy share one {@link SlackClient}.
+ */
+@AutoValue
+public abstract class SlackDestination {
+  public abstract String webhookUrl();
+
+  public abstract String token();
+
+  public abstract String proxyAddress();
+
+  public static SlackDestination create(String webhookUrl, String token, String proxyAddress) {
+    return new AutoValue_SlackDestination(nullToEmpty(webhookUrl), nullToEmpty(token), nullToEmpty(proxyAddress));
+  }
+
+  public static SlackDestination of(SlackNotificationConfig configuration) {
+    return create(configuration.webhookUrl(), configuration.token(), configuration.proxyAddress());
+  }
+
+  /**
+   * @return the token, or the webhook URL if there is no token
+   */
+  public String key() {
+    return isNullOrEmpty(token()) ? webhookUrl() : token();
+  }
+
+  /**
+   * Webhook URL and token are secrets, only a hash of them is shown.
+   *
+   * @return the key which is safe to print in logs and API responses
+   */
+  public String maskedKey() {
+    return (isNullOrEmpty(token()) ? "webhook=" : "token=") + Integer.toHexString(key().hashCode());
+  }
+
+  /**
+   * Webhook URL and token are secrets. Do not print them in logs.
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("SlackDestination{").append(maskedKey());
+    if (!isNullOrEmpty(proxyAddress())) {
+      builder.append(", proxy=").append(proxyAddress());
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,107 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One object mapper for the JSON sent to and received from Slack, with readers and writers of the
+ * plugin types built once. A typed reader or writer keeps its resolved (de)serializer, so a call
+ * neither builds a mapper nor looks up the type again.
+ *
+ * <p>The Blackbird module generates accessors of the plugin types instead of calling them through
+ * reflection. Jackson itself comes from Graylog, so the module is only registered when it is
+ * bundled and matches the Jackson version of the server.
+ *
+ * <p>It is a singleton of {@link SlackNotificationPluginModule}. Message classes which are not
+ * created by Guice get it from the caller which writes or parses them.
+ */
+@Singleton
+public final class SlackJson {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackJson.class);
+  private static final String BLACKBIRD_MODULE = "com.fasterxml.jackson.module.blackbird.BlackbirdModule";
+
+  private final boolean accelerated;
+  private final JsonFactory factory;
+  private final ObjectWriter writer;
+  private final ObjectWriter attachmentWriter;
+  private final ObjectReader messageReader;
+  private final ObjectReader actionReader;
+  private final ObjectReader userListReader;
+
+  @Inject
+  public SlackJson() {
+    ObjectMapper objectMapper = new ObjectMapper();
+    this.accelerated = registerBlackbird(objectMapper);
+    this.factory = objectMapper.getFactory();
+    this.writer = objectMapper.writer();
+    // attachments are written one by one into the generator of a message, which flushes once
+    this.attachmentWriter = objectMapper.writerFor(SlackMessage.Attachment.class)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.messageReader = objectMapper.readerFor(SlackMessage.class);
+    this.actionReader = objectMapper.readerFor(SlackActionPayload.class);
+    this.userListReader = objectMapper.readerFor(SlackUserList.class);
+  }
+
+  private static boolean registerBlackbird(ObjectMapper objectMapper) {
+    try {
+      Class<?> module = Class.forName(BLACKBIRD_MODULE, true, SlackJson.class.getClassLoader());
+      objectMapper.registerModule((Module) module.getConstructor().newInstance());
+      return true;
+    } catch (ClassNotFoundException e) {
+      LOG.debug("Jackson Blackbird is not available, Slack JSON uses reflection");
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      LOG.warn("Could not register Jackson Blackbird, Slack JSON uses reflection", e);
+    }
+    return false;
+  }
+
+  /**
+   * @return true if accessors of the plugin types are generated by Blackbird
+   */
+  public boolean isAccelerated() {
+    return accelerated;
+  }
+
+  /**
+   * @return factory of generators and parsers of the mapper
+   */
+  public JsonFactory factory() {
+    return factory;
+  }
+
+  /**
+   * @return an untyped writer for values without a prepared writer
+   */
+  public ObjectWriter writer() {
+    return writer;
+  }
+
+  /**
+   * @return writer of a {@link SlackMessage.Attachment}, it does not flush after a value
+   */
+  public ObjectWriter attachmentWriter() {
+    return attachmentWriter;
+  }
+
+  public ObjectReader messageReader() {
+    return messageReader;
+  }
+
+  public ObjectReader actionReader() {
+    return actionReader;
+  }
+
+  public ObjectReader userListReader() {
+    return userListReader;
+  }
+}
@@ -6,10 +6,12 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -22,8 +24,6 @@ import java.util.Map;
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class SlackMessage {
-  private static ObjectWriter objectWriter = new ObjectMapper().writer();
-
   @JsonProperty(value = "text")
   public String text;
 
@@ -73,44 +73,79 @@ public class SlackMessage {
 
   public void addMessageIcon(String messageIcon) {
     if (!isNullOrEmpty(messageIcon)) {
-      try {
-        final URI uri = new URI(messageIcon);
-        if (isValidUriScheme(uri, "http", "https")) {
-          this.iconUrl = messageIcon;
-        } else {
-          this.iconEmoji = messageIcon;
-        }
-      } catch (URISyntaxException e) {
+      if (isIconUrl(messageIcon)) {
+        this.iconUrl = messageIcon;
+      } else {
         this.iconEmoji = messageIcon;
       }
     }
   }
 
-  public String getJsonString() {
-    final Map<String, Object> params =
-        new HashMap<String, Object>() {
-          private static final long serialVersionUID = 5555331305145971889L;
-          {
-            put("text", text);
-            put("channel", channel);
-            put("username", username);
-            put("icon_url", iconUrl);
-            put("icon_emoji", iconEmoji);
-            put("link_names", linkNames);
-            put("parse", "none");
-          }
-        };
-    if (!attachments.isEmpty()) {
-      params.put("attachments", attachments);
+  /**
+   * @param messageIcon icon URL or emoji
+   * @return true if the icon is an http or https URL
+   */
+  public static boolean isIconUrl(String messageIcon) {
+    try {
+      return isValidUriScheme(new URI(messageIcon), "http", "https");
+    } catch (URISyntaxException e) {
+      return false;
     }
+  }
+
+  public String getJsonString(SlackJson json) {
+    return toPayload(json).toString();
+  }
+
+  /**
+   * @param json the plugin's object mapper
+   * @return the message as UTF-8 JSON, written without building an intermediate map or string
+   */
+  public SlackPayload toPayload(SlackJson json) {
+    SlackPayload payload = new SlackPayload();
     try {
-      return objectWriter.writeValueAsString(params);
-    } catch (JsonProcessingException e) {
+      writeTo(json, payload);
+    } catch (IOException e) {
       throw new RuntimeException("Could not build payload JSON.", e);
     }
+    return payload;
+  }
+
+  /**
+   * Write the message as UTF-8 JSON. The stream is flushed but not closed.
+   *
+   * @param json the plugin's object mapper
+   * @param out the stream to write to
+   */
+  public void writeTo(SlackJson json, OutputStream out) throws IOException {
+    try (JsonGenerator generator = json.factory().createGenerator(out, JsonEncoding.UTF8)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.writeStartObject();
+      writeStringField(generator, "text", text);
+      writeStringField(generator, "channel", channel);
+      writeStringField(generator, "username", username);
+      writeStringField(generator, "icon_url", iconUrl);
+      writeStringField(generator, "icon_emoji", iconEmoji);
+      generator.writeBooleanField("link_names", linkNames);
+      generator.writeStringField("parse", "none");
+      if (attachments != null && !attachments.isEmpty()) {
+        generator.writeArrayFieldStart("attachments");
+        for (Attachment attachment : attachments) {
+          json.attachmentWriter().writeValue(generator, attachment);
+        }
+        generator.writeEndArray();
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  private static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+    if (value != null) {
+      generator.writeStringField(name, value);
+    }
   }
 
-  public String getRequestString() {
+  public String getRequestString(SlackJson json) {
     final Map<String, Object> params =
         new HashMap<String, Object>() {
           private static final long serialVersionUID = 8683918581659326967L;
@@ -126,7 +161,7 @@ public class SlackMessage {
         };
     if (!attachments.isEmpty()) {
       try {
-        String attachmentString = objectWriter.writeValueAsString(attachments);
+        String attachmentString = json.writer().writeValueAsString(attachments);
         params.put("attachments", attachmentString);
       } catch (JsonProcessingException e) {
         throw new RuntimeException("Could not build payload JSON.", e);
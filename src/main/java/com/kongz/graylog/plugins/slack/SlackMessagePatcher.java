@@ -0,0 +1,239 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Answers a button click by copying <code>original_message</code> of a Slack action payload as it
+ * was sent, without building the message and its attachments as objects. Only the
+ * <code>actions</code> of the clicked attachment are cut out and a reply attachment is spliced in
+ * after it.
+ *
+ * <p>{@link #parse(SlackJson, String)} reads the payload once with the streaming parser. It keeps the small
+ * fields of the action and the positions of the tokens to cut at, and fails on a broken payload
+ * before the response is started. {@link #writeTo(OutputStream, SlackMessage.Attachment)} then
+ * copies the text between these positions.
+ */
+public class SlackMessagePatcher {
+  private static final String ORIGINAL_MESSAGE = "original_message";
+  private static final String ATTACHMENTS = "attachments";
+  private static final String ACTIONS = "actions";
+
+  private final ObjectWriter attachmentWriter;
+  private final String payload;
+  private final SlackActionPayload action;
+  private final int messageStart;
+  private final int messageEnd;
+  // text of the clicked attachment to leave out, start equals end if it has no actions
+  private final int actionsStart;
+  private final int actionsEnd;
+  private final int attachmentEnd;
+
+  private SlackMessagePatcher(SlackJson json, String payload, SlackActionPayload action, Positions positions,
+      int attachmentIndex) {
+    this.attachmentWriter = json.attachmentWriter();
+    this.payload = payload;
+    this.action = action;
+    this.messageStart = positions.messageStart;
+    this.messageEnd = positions.messageEnd;
+    this.actionsStart = positions.attachments[attachmentIndex * 3];
+    this.actionsEnd = positions.attachments[attachmentIndex * 3 + 1];
+    this.attachmentEnd = positions.attachments[attachmentIndex * 3 + 2];
+  }
+
+  /**
+   * @param json the plugin's object mapper
+   * @param payload the <code>payload</code> form parameter sent by Slack
+   * @return a patcher of the original message of the payload
+   * @throws IOException if the payload is not valid JSON
+   * @throws IllegalArgumentException if the clicked attachment is not in the original message
+   */
+  public static SlackMessagePatcher parse(SlackJson json, String payload) throws IOException {
+    ObjectReader actionReader = json.actionReader();
+    ObjectNode fields = JsonNodeFactory.instance.objectNode();
+    Positions positions = null;
+    try (JsonParser parser = actionReader.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Slack action payload is not a JSON object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if (ORIGINAL_MESSAGE.equals(name) && value == JsonToken.START_OBJECT) {
+          positions = readMessage(parser, payload);
+        } else if (ORIGINAL_MESSAGE.equals(name)) {
+          parser.skipChildren();
+        } else {
+          fields.set(name, (JsonNode) parser.readValueAsTree());
+        }
+      }
+    }
+    SlackActionPayload action = actionReader.readValue(fields);
+    if (action.attachmentId == null) {
+      throw new IllegalArgumentException("Slack action has no attachment_id");
+    }
+    int attachmentIndex = Integer.parseInt(action.attachmentId) - 1;
+    if (positions == null || attachmentIndex < 0 || attachmentIndex >= positions.count
+        || positions.attachments[attachmentIndex * 3 + 2] < 0) {
+      throw new IllegalArgumentException("Attachment " + action.attachmentId + " is not in the original message");
+    }
+    return new SlackMessagePatcher(json, payload, action, positions, attachmentIndex);
+  }
+
+  /**
+   * @return fields of the action, {@link SlackActionPayload#originalMessage} is not read
+   */
+  public SlackActionPayload action() {
+    return action;
+  }
+
+  /**
+   * Write the original message without the buttons of the clicked attachment and with a reply
+   * after it. The stream is flushed but not closed.
+   *
+   * @param out   the stream to write to
+   * @param reply attachment to insert after the clicked attachment
+   */
+  public void writeTo(OutputStream out, SlackMessage.Attachment reply) throws IOException {
+    writeTo(out, reply, false);
+  }
+
+  /**
+   * Write the patched message as {@link #writeTo(OutputStream, SlackMessage.Attachment)} does.
+   *
+   * @param out             the stream to write to
+   * @param reply           attachment to insert after the clicked attachment
+   * @param replaceOriginal true to add <code>"replace_original":true</code> to the message, which
+   *                        is needed when it is posted to <code>response_url</code>
+   */
+  public void writeTo(OutputStream out, SlackMessage.Attachment reply, boolean replaceOriginal) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    if (replaceOriginal) {
+      // the message has at least the clicked attachment, so a field always follows
+      writer.write("{\"replace_original\":true,");
+      writer.write(payload, messageStart + 1, actionsStart - messageStart - 1);
+    } else {
+      writer.write(payload, messageStart, actionsStart - messageStart);
+    }
+    writer.write(payload, actionsEnd, attachmentEnd - actionsEnd);
+    writer.write(',');
+    writer.write(attachmentWriter.writeValueAsString(reply));
+    writer.write(payload, attachmentEnd, messageEnd - attachmentEnd);
+    writer.flush();
+  }
+
+  /**
+   * Read the original message from its start object token and remember where its attachments
+   * and their actions are.
+   */
+  private static Positions readMessage(JsonParser parser, String payload) throws IOException {
+    Positions positions = new Positions();
+    positions.messageStart = tokenStart(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (ATTACHMENTS.equals(name) && value == JsonToken.START_ARRAY) {
+        while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+          if (value == JsonToken.START_OBJECT) {
+            readAttachment(parser, payload, positions);
+          } else {
+            // not an attachment, it cannot be clicked
+            parser.skipChildren();
+            positions.add(-1, -1, -1);
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    positions.messageEnd = tokenEnd(parser);
+    return positions;
+  }
+
+  private static void readAttachment(JsonParser parser, String payload, Positions positions)
+      throws IOException {
+    int actionsStart = -1;
+    int actionsEnd = -1;
+    int pending = -1;
+    boolean pendingFirst = false;
+    boolean first = true;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      // positions are taken at token starts and closing brackets only, the end of a string
+      // value is not known until the string is read
+      int nameStart = tokenStart(parser);
+      if (pending >= 0) {
+        // cut up to the next field with the comma after actions
+        actionsStart = pending;
+        actionsEnd = nameStart;
+        pending = -1;
+      }
+      if (ACTIONS.equals(parser.getCurrentName())) {
+        pending = nameStart;
+        pendingFirst = first;
+      }
+      parser.nextToken();
+      parser.skipChildren();
+      first = false;
+    }
+    if (pending >= 0) {
+      // actions is the last field, cut the comma after the previous field instead
+      actionsStart = pendingFirst ? pending : commaBefore(payload, pending);
+      actionsEnd = tokenStart(parser);
+    }
+    int attachmentEnd = tokenEnd(parser);
+    if (actionsStart < 0) {
+      actionsStart = actionsEnd = attachmentEnd;
+    }
+    positions.add(actionsStart, actionsEnd, attachmentEnd);
+  }
+
+  private static int commaBefore(String payload, int position) throws IOException {
+    int i = position - 1;
+    while (i >= 0 && Character.isWhitespace(payload.charAt(i))) {
+      i--;
+    }
+    if (i < 0 || payload.charAt(i) != ',') {
+      throw new IOException("Unexpected character before actions of Slack attachment");
+    }
+    return i;
+  }
+
+  private static int tokenStart(JsonParser parser) {
+    return (int) parser.getTokenLocation().getCharOffset();
+  }
+
+  private static int tokenEnd(JsonParser parser) {
+    return (int) parser.getCurrentLocation().getCharOffset();
+  }
+
+  private static class Positions {
+    int messageStart;
+    int messageEnd;
+    int count;
+    // actions start, actions end and end of each attachment
+    int[] attachments = new int[48];
+
+    void add(int actionsStart, int actionsEnd, int attachmentEnd) {
+      if (attachments.length < (count + 1) * 3) {
+        attachments = Arrays.copyOf(attachments, attachments.length * 2);
+      }
+      attachments[count * 3] = actionsStart;
+      attachments[count * 3 + 1] = actionsEnd;
+      attachments[count * 3 + 2] = attachmentEnd;
+      count++;
+    }
+  }
+}
@@ -1,40 +1,29 @@
 package com.kongz.graylog.plugins.slack;
 
-import static com.google.common.base.Strings.isNullOrEmpty;
-
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.floreysoft.jmte.Engine;
-import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 
 import org.graylog.events.event.EventDto;
 import org.graylog.events.notifications.EventNotification;
 import org.graylog.events.notifications.EventNotificationContext;
 import org.graylog.events.notifications.EventNotificationService;
-import org.graylog.events.notifications.EventNotificationModelData;
 import org.graylog.events.notifications.EventNotificationException;
 import org.graylog.events.notifications.PermanentEventNotificationException;
 import org.graylog.events.notifications.TemporaryEventNotificationException;
 import org.graylog.events.processor.EventDefinitionDto;
-import org.graylog2.jackson.TypeReferences;
 import org.graylog2.notifications.Notification;
 import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.Message;
-import org.graylog2.plugin.MessageSummary;
-import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.system.NodeId;
-import org.graylog2.streams.StreamService;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -49,31 +38,71 @@ public class SlackNotification implements EventNotification {
 	}
 
 	private final EventNotificationService notificationCallbackService;
-	private final StreamService streamService;
+	private final StreamMetadataCache streamCache;
 	private final NotificationService notificationService;
 	private final NodeId nodeId;
-	private final Engine templateEngine;
+	private final TemplateCache templateCache;
 	private final ObjectMapper objectMapper;
+	private final SlackClientFactory clientFactory;
+	private final SlackDeliveryService deliveryService;
+	private final SlackAggregator aggregator;
+	private final RenderPlanCache renderPlans;
+	private final SlackAttachmentRenderer attachmentRenderer;
+	private final SlackPayloadBudget payloadBudget;
+	private final SlackOutbox outbox;
+	private final Histogram backlogQueries;
+	// time of each phase of send()
+	private final Timer sendTimer;
+	private final Timer backlogTimer;
+	private final Timer userLookupTimer;
+	private final Timer renderTimer;
+	private final Timer budgetTimer;
+	private final Timer dispatchTimer;
+	private final Meter temporaryFailures;
+	private final Meter permanentFailures;
+	private final Meter failures;
 
 	@Inject
-	public SlackNotification(EventNotificationService notificationCallbackService, StreamService streamService,
-			NotificationService notificationService, NodeId nodeId, Engine templateEngine, ObjectMapper objectMapper) {
+	public SlackNotification(EventNotificationService notificationCallbackService, StreamMetadataCache streamCache,
+			NotificationService notificationService, NodeId nodeId, TemplateCache templateCache, ObjectMapper objectMapper,
+			SlackClientFactory clientFactory, SlackDeliveryService deliveryService, SlackAggregator aggregator,
+			RenderPlanCache renderPlans, SlackAttachmentRenderer attachmentRenderer, SlackPayloadBudget payloadBudget,
+			SlackOutbox outbox, MetricRegistry metricRegistry) {
 		this.notificationCallbackService = notificationCallbackService;
-		this.streamService = streamService;
+		this.streamCache = streamCache;
 		this.notificationService = notificationService;
 		this.nodeId = nodeId;
-		this.templateEngine = templateEngine;
+		this.templateCache = templateCache;
 		this.objectMapper = objectMapper;
+		this.clientFactory = clientFactory;
+		this.deliveryService = deliveryService;
+		this.aggregator = aggregator;
+		this.renderPlans = renderPlans;
+		this.attachmentRenderer = attachmentRenderer;
+		this.payloadBudget = payloadBudget;
+		this.outbox = outbox;
+		this.backlogQueries = metricRegistry.histogram(MetricRegistry.name(SlackNotification.class, "backlogQueries"));
+		this.sendTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send"));
+		this.backlogTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send", "backlog"));
+		this.userLookupTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send", "userLookup"));
+		this.renderTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send", "render"));
+		this.budgetTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send", "budget"));
+		this.dispatchTimer = metricRegistry.timer(MetricRegistry.name(SlackNotification.class, "send", "dispatch"));
+		this.temporaryFailures = metricRegistry.meter(MetricRegistry.name(SlackNotification.class, "temporaryFailures"));
+		this.permanentFailures = metricRegistry.meter(MetricRegistry.name(SlackNotification.class, "permanentFailures"));
+		this.failures = metricRegistry.meter(MetricRegistry.name(SlackNotification.class, "failures"));
 	}
 
 	@Override
 	public void execute(EventNotificationContext ctx) throws EventNotificationException {
-		try {
+		try (Timer.Context ignored = sendTimer.time()) {
 			send(ctx);
 		} catch (TemporaryEventNotificationException e) {
+			temporaryFailures.mark();
 			//scheduler needs to retry a TemporaryEventNotificationException
 			throw e;
 		}	catch (PermanentEventNotificationException e) {
+			permanentFailures.mark();
 			String errorMessage = String.format("Error sending the SlackNotification. %s", e.getMessage());
 			final Notification systemNotification = notificationService.buildNow()
 						.addNode(nodeId.toString())
@@ -83,110 +112,156 @@ public class SlackNotification implements EventNotification {
 						.addDetail("description", errorMessage);
 			notificationService.publishIfFirst(systemNotification);
 			throw e;
+		} catch (EventNotificationException e) {
+			failures.mark();
+			throw e;
 		} catch (Exception e) {
+			failures.mark();
 			throw new EventNotificationException("There was an exception triggering the SlackNotification", e);
 		}
 	}
 
 	private void send(EventNotificationContext ctx) throws EventNotificationException{
 		final SlackNotificationConfig configuration = (SlackNotificationConfig) ctx.notificationConfig();
-		final SlackClient client = new SlackClient(configuration);
-		final String color = configuration.color();
-		final String footerIconUrl = configuration.footerIconUrl();
-		final String footerText = configuration.footerText();
-		final String tsField = configuration.footerTsField();
-		final String customField = configuration.fields();
-		final boolean isAcknowledge = configuration.acknowledge();
-		final String graylogUri = configuration.graylogUrl();
-		final boolean isPreFormat = configuration.preformat();
+		// Settings are interpreted once per notification config and shared by every event
+		final SlackRenderPlan plan = renderPlans.get(configuration);
+		final SlackClient client;
+		try {
+			client = clientFactory.get(plan.destination());
+		} catch (SlackClient.SlackClientException e) {
+			throw new EventNotificationException("Could not send message to Slack.", e);
+		}
+		if (!outbox.isEnabled()) {
+			// Do not search and render for an endpoint which is known to be down
+			try {
+				client.checkCircuit();
+			} catch (SlackClient.SlackCircuitOpenException e) {
+				throw new TemporaryEventNotificationException(e.getMessage(), e);
+			}
+		}
+		// Backlog is searched once and shared by all render stages
+		final BacklogSnapshot backlog = BacklogSnapshot.of(notificationCallbackService, ctx, plan.backlogItems(),
+				backlogTimer);
 		// Create Message
-		SlackMessage message = new SlackMessage(buildMessage(ctx, configuration), configuration.channel(),
-				configuration.userName(), configuration.messageIcon(), configuration.linkNames());
+		SlackMessage message = plan.newMessage(buildMessage(ctx, plan, client, backlog));
 
 		// Create Attachment for Backlog and Fields section
-		final List<Message> backlogItems = getAlarmBacklog(ctx);
-		int count = configuration.backlogItems();
+		final List<Message> backlogItems = backlog.messages();
+		int count = plan.backlogItems();
 		if (count > 0) {
-			final int blSize = backlogItems.size();
-			if (blSize < count) {
-				count = blSize;
-			}
-			boolean shortMode = configuration.shortMode();
-			final String[] customFields;
-			if (!isNullOrEmpty(customField)) {
-				customFields = customField.split(",");
-			} else {
-				customFields = new String[0];
-			}
-			Map<String, Object> backlogFields = getBacklogsFields(ctx, count);
-			Map<String, Object> eventFields = java.util.stream.Stream.of(new Object[][] { 
-				{ "event_definition_id", backlogFields.get("event_definition_id") }, 
-				{ "event_definition_type", backlogFields.get("event_definition_type") }, 
-				{ "event_definition_title", backlogFields.get("event_definition_title") }, 
-				{ "event_definition_description", backlogFields.get("event_definition_description") }, 
-				{ "job_definition_id", backlogFields.get("job_definition_id") }, 
-				{ "job_trigger_id", backlogFields.get("job_trigger_id") }, 
-				{ "event", backlogFields.get("event") }, 
-		  }).collect(Collectors.toMap(data -> (String) data[0], data -> (Object) data[1]));
-			for (int i = 0; i < count; i++) {
-				Message backlogItem = backlogItems.get(i);
-				String footer = null;
-				Long ts = null;
-				Map<String, Object> fields = new HashMap<>();
-				fields.putAll(eventFields);
-				fields.putAll(backlogItem.getFields());
-				if (!isNullOrEmpty(footerText)) {
-					try {
-						footer = templateEngine.transform(footerText, ImmutableMap.copyOf(fields)).trim();
-					} catch (Exception e) {
-						footer = "Invalid footer template";
-					}
-					if (!isNullOrEmpty(graylogUri))
-						footer = new StringBuilder("<").append(buildMessageLink(graylogUri, backlogItem)).append('|')
-								.append(footer).append('>').toString();
-					try {
-						DateTime timestamp = null;
-						if ("timestamp".equals(tsField)) { // timestamp is reserved field in org.graylog2.notifications.NotificationImpl
-							timestamp = backlogItem.getTimestamp();
-						} else {
-							Object value = backlogItem.getField(tsField);
-							if (value instanceof DateTime) {
-								timestamp = (DateTime) value;
-							} else {
-								timestamp = new DateTime(value, DateTimeZone.UTC);
-							}
-						}
-						ts = timestamp.getMillis() / 1000;
-					} catch (NullPointerException | IllegalArgumentException e) {
-						// ignore
-					}
-				}
-				List<SlackMessage.Action> actionList = null;
-				if (isAcknowledge) {
-					actionList = Lists.newArrayList(new SlackMessage.Action("acknowledge", "Acknowledge", "true", "primary"),
-							new SlackMessage.Action("decline", "It is not me!!", "true", "danger"));
+			try (Timer.Context ignored = renderTimer.time()) {
+				final int blSize = backlogItems.size();
+				if (blSize < count) {
+					count = blSize;
 				}
-				StringBuilder backLogMessage = new StringBuilder(backlogItem.getMessage());
-				if (isPreFormat)
-					backLogMessage.insert(0, "```").append("```");
-				final SlackMessage.Attachment attachment = message.addAttachment(backLogMessage.toString(), color, footer,
-						footerIconUrl, ts, backlogItem.getId(), actionList);
-				if (isPreFormat)
-					attachment.setMarkdownIn("text");
-				// Add custom fields from backlog list
-				if (customFields.length > 0) {
-					Arrays.stream(customFields).map(String::trim).forEach(f -> addField(fields, f, shortMode, attachment));
+				// Read from the context, the backlog is not converted to a map only to be thrown away
+				Map<String, Object> eventFields = EventFields.of(ctx, objectMapper);
+				// Items are rendered in parallel for large backlogs, attachments keep the backlog order
+				List<SlackMessage.Attachment> attachments = attachmentRenderer.render(backlogItems.subList(0, count),
+						backlogItem -> buildAttachment(plan, eventFields, backlogItem));
+				for (SlackMessage.Attachment attachment : attachments) {
+					message.addAttachment(attachment);
 				}
 			}
 		}
+		backlogQueries.update(backlog.queries());
+		LOG.debug("Slack notification <{}> made {} backlog search(es)", ctx.notificationId(), backlog.queries());
+		// Trim to Slack limits before the message is serialized rather than have Slack reject it
+		try (Timer.Context ignored = budgetTimer.time()) {
+			payloadBudget.apply(message);
+		}
 		// Send message to Slack
+		try (Timer.Context ignored = dispatchTimer.time()) {
+			dispatch(ctx, plan, client, message);
+		}
+	}
+
+	private void dispatch(EventNotificationContext ctx, SlackRenderPlan plan, SlackClient client, SlackMessage message)
+			throws EventNotificationException {
+		if (plan.aggregationWindow() > 0) {
+			// The digest goes to the outbox or the delivery service when one of them is enabled
+			String key = ctx.notificationId() + '/' + ctx.event().eventDefinitionId() + '/' + plan.channel();
+			aggregator.add(key, plan.aggregationWindow(), plan.aggregationTopItems(), ctx.notificationId(), plan.destination(),
+					client, message);
+			return;
+		}
+		if (outbox.isEnabled()) {
+			outbox.append(ctx.notificationId(), message);
+			return;
+		}
+		if (deliveryService.isEnabled()) {
+			deliveryService.submit(plan.destination(), client, message);
+			return;
+		}
 		try {
 			client.send(message);
+		} catch (SlackClient.SlackRateLimitException e) {
+			// scheduler retries the notification, Retry-After is kept in the message because
+			// TemporaryEventNotificationException does not carry a delay
+			throw new TemporaryEventNotificationException(
+					"Slack rate limit reached, retry after " + e.getRetryAfterMs() + "ms.", e);
+		} catch (SlackClient.SlackCircuitOpenException e) {
+			throw new TemporaryEventNotificationException(e.getMessage(), e);
 		} catch (SlackClient.SlackClientException e) {
 			throw new EventNotificationException("Could not send message to Slack.", e);
 		}
 	}
 
+	/**
+	 * Create a Slack attachment of a backlog item. It is called from several threads when the
+	 * backlog is rendered in parallel.
+	 *
+	 * @param plan        settings of the notification
+	 * @param eventFields fields of the event shared by every item
+	 * @param backlogItem a backlog message
+	 * @return the attachment of the message
+	 */
+	private SlackMessage.Attachment buildAttachment(SlackRenderPlan plan, Map<String, Object> eventFields,
+			Message backlogItem) {
+		String footer = null;
+		Long ts = null;
+		final Map<String, Object> fields = new MessageFieldsView(eventFields, backlogItem);
+		if (plan.footerText() != null) {
+			try {
+				footer = templateCache.transform(plan.footerText(), fields).trim();
+			} catch (Exception e) {
+				footer = "Invalid footer template";
+			}
+			if (plan.messageLinkPrefix() != null)
+				footer = new StringBuilder("<").append(buildMessageLink(plan, backlogItem)).append('|')
+						.append(footer).append('>').toString();
+			try {
+				DateTime timestamp = null;
+				if (plan.isReservedTimestamp()) {
+					timestamp = backlogItem.getTimestamp();
+				} else {
+					Object value = backlogItem.getField(plan.tsField());
+					if (value instanceof DateTime) {
+						timestamp = (DateTime) value;
+					} else {
+						timestamp = new DateTime(value, DateTimeZone.UTC);
+					}
+				}
+				ts = timestamp.getMillis() / 1000;
+			} catch (NullPointerException | IllegalArgumentException e) {
+				// ignore
+			}
+		}
+		String backLogMessage = backlogItem.getMessage();
+		if (plan.preformat())
+			backLogMessage = "```" + backLogMessage + "```";
+		final SlackMessage.Attachment attachment = new SlackMessage.Attachment(backLogMessage, backLogMessage, null,
+				plan.color(), footer, plan.footerIconUrl(), ts, new ArrayList<>(), backlogItem.getId(), plan.actions(),
+				null);
+		if (plan.preformat())
+			attachment.setMarkdownIn("text");
+		// Add custom fields from backlog list
+		for (String customField : plan.customFields()) {
+			addField(fields, customField, plan.shortMode(), attachment);
+		}
+		return attachment;
+	}
+
 	/**
 	 * Shortcut method to add a backlog field into Slack attachment.
 	 *
@@ -213,7 +288,7 @@ public class SlackNotification implements EventNotification {
 	private void addField(Map<String, Object> fields, String fieldName, boolean shortMode, SlackMessage.Attachment attachment) {
 		Object value = null;
 		try {
-			value = templateEngine.transform(fieldName, ImmutableMap.copyOf(fields)).trim();
+			value = templateCache.transform(fieldName, fields).trim();
 			if (fieldName.equals(value)) {
 				value = null;
 			}
@@ -235,46 +310,22 @@ public class SlackNotification implements EventNotification {
 	 * @param result  a Graylog alert condition result
 	 * @return a text to be used in Slack message
 	 */
-	private String buildMessage(EventNotificationContext ctx, SlackNotificationConfig configuration) {
-		final SlackClient client = new SlackClient(configuration);
-
-		String graylogUri = configuration.graylogUrl();
-		String notifyUsers = configuration.notifyUsers();
-
+	private String buildMessage(EventNotificationContext ctx, SlackRenderPlan plan, SlackClient client,
+			BacklogSnapshot backlog) {
 		StringBuilder message = new StringBuilder();
-		if (!isNullOrEmpty(notifyUsers)) {
-			List<MessageSummary> messageList = notificationCallbackService.getBacklogForEvent(ctx);
-			if (!messageList.isEmpty()) {
-				for (MessageSummary messageSummary : messageList) {
-					notifyUsers = StringReplacement.replaceWithPrefix(notifyUsers, "@",
-							messageSummary.getRawMessage().getFields());
-				}
-				try {
-					if (notifyUsers.contains("@")) {
-						StringBuilder usersAsId = new StringBuilder();
-						Iterable<String> users = Splitter.on('@').split(notifyUsers);
-						for (String user : users) {
-							user = user.trim();
-							if (!"".equals(user)) {
-								String id = client.getSlackUser(user);
-								usersAsId.append("<@").append(id).append(">").append(" ");
-							}
-						}
-						notifyUsers = usersAsId.toString();
-					}
-				} catch (SlackClient.SlackClientException e) {
-					LOG.error(e.getMessage(), e);
-				}
-			} else {
-				notifyUsers = StringReplacement.replace(notifyUsers, Collections.emptyMap());
+		if (plan.notifyUsers() != null) {
+			final List<Message> messages = backlog.messages();
+			final String notifyUsers;
+			try (Timer.Context ignored = userLookupTimer.time()) {
+				notifyUsers = plan.notifyUsers().resolve(messages, client);
 			}
 			message.append(notifyUsers.trim()).append(' ');
 		}
 		EventDto eventDto = ctx.event();
-		Set<Stream> streams = streamService.loadByIds(eventDto.sourceStreams());
-		for (Stream stream : streams) {
-			if (!isNullOrEmpty(graylogUri)) {
-				message.append(" <").append(buildStreamLink(graylogUri, stream)).append('|').append(stream.getTitle())
+		List<StreamMetadataCache.StreamMetadata> streams = streamCache.get(eventDto.sourceStreams());
+		for (StreamMetadataCache.StreamMetadata stream : streams) {
+			if (plan.streamLinkPrefix() != null) {
+				message.append(" <").append(buildStreamLink(plan, stream)).append('|').append(stream.getTitle())
 						.append("> ");
 			} else {
 				message.append(" _").append(stream.getTitle()).append("_ ");
@@ -287,40 +338,14 @@ public class SlackNotification implements EventNotification {
 		return message.toString();
 	}
 
-	private String buildMessageLink(String baseUrl, Message message) {
-		StringBuilder builder = new StringBuilder(baseUrl);
-		if (!baseUrl.endsWith("/")) {
-			builder.append('/');
-		}
-		return builder.append("messages/").append(message.getField("gl2_document_index")).append('/')
+	private String buildMessageLink(SlackRenderPlan plan, Message message) {
+		return new StringBuilder(plan.messageLinkPrefix()).append(message.getField("gl2_document_index")).append('/')
 				.append(message.getId()).toString();
 	}
 
-	private String buildStreamLink(String baseUrl, Stream stream) {
-		StringBuilder builder = new StringBuilder(baseUrl);
-		if (!baseUrl.endsWith("/")) {
-			builder.append('/');
-		}
-		return builder.append("streams/").append(stream.getId()).append("/search?q=&rangetype=relative&relative=3600")
-				.toString();
-	}
-
-	private List<Message> getAlarmBacklog(EventNotificationContext ctx) {
-		final List<MessageSummary> matchingMessages = notificationCallbackService.getBacklogForEvent(ctx);
-		return matchingMessages.stream().map(ms -> {
-			Message m = ms.getRawMessage();
-			m.addField("gl2_document_index", ms.getIndex());
-			return m;
-		}).collect(Collectors.toList());
+	private String buildStreamLink(SlackRenderPlan plan, StreamMetadataCache.StreamMetadata stream) {
+		return new StringBuilder(plan.streamLinkPrefix()).append(stream.getId())
+				.append("/search?q=&rangetype=relative&relative=3600").toString();
 	}
 
-	private Map<String, Object> getBacklogsFields(EventNotificationContext ctx, int backlogItemsCount) {
-		List<MessageSummary> backlog = notificationCallbackService.getBacklogForEvent(ctx);
-		if (backlogItemsCount > 0 && backlog != null) {
-			backlog = backlog.stream().limit(backlogItemsCount).collect(Collectors.toList());
-		}
-		EventNotificationModelData modelData = EventNotificationModelData.of(ctx, backlog);
-		return objectMapper.convertValue(modelData, TypeReferences.MAP_STRING_OBJECT);
-  }
-
 }
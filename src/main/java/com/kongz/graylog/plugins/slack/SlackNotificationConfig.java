@@ -41,6 +41,8 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 	public static final String FIELD_ACKNOWLEDGE = "acknowledge";
 	public static final String FIELD_PREFORMAT = "preformat";
 	public static final String FIELD_TOKEN = "token";
+	public static final String FIELD_AGGREGATION_WINDOW = "aggregationWindow";
+	public static final String FIELD_AGGREGATION_TOP_ITEMS = "aggregationTopItems";
 
 	@JsonProperty(FIELD_WEBHOOK_URL)
 	public abstract String webhookUrl();
@@ -99,6 +101,12 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 	@JsonProperty(FIELD_TOKEN)
 	public abstract String token();
 
+	@JsonProperty(FIELD_AGGREGATION_WINDOW)
+	public abstract int aggregationWindow();
+
+	@JsonProperty(FIELD_AGGREGATION_TOP_ITEMS)
+	public abstract int aggregationTopItems();
+
 	@Override
 	@JsonIgnore
 	public JobTriggerData toJobTriggerData(EventDto dto) {
@@ -112,7 +120,14 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 	@Override
 	@JsonIgnore
 	public ValidationResult validate() {
-		return new ValidationResult();
+		final ValidationResult validation = new ValidationResult();
+		if (aggregationWindow() < 0) {
+			validation.addError(FIELD_AGGREGATION_WINDOW, "Aggregation window cannot be negative.");
+		}
+		if (aggregationTopItems() < 0) {
+			validation.addError(FIELD_AGGREGATION_TOP_ITEMS, "Aggregation items cannot be negative.");
+		}
+		return validation;
 	}
 
 	@AutoValue.Builder
@@ -120,7 +135,9 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 		@JsonCreator
 		public static Builder create() {
 			return new AutoValue_SlackNotificationConfig.Builder()
-				.type(TYPE_NAME);
+				.type(TYPE_NAME)
+				.aggregationWindow(0)
+				.aggregationTopItems(5);
 		}
 
 		@JsonProperty(FIELD_WEBHOOK_URL)
@@ -177,6 +194,12 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 		@JsonProperty(FIELD_TOKEN)
 		public abstract Builder token(String token);
 
+		@JsonProperty(FIELD_AGGREGATION_WINDOW)
+		public abstract Builder aggregationWindow(int aggregationWindow);
+
+		@JsonProperty(FIELD_AGGREGATION_TOP_ITEMS)
+		public abstract Builder aggregationTopItems(int aggregationTopItems);
+
 		public abstract SlackNotificationConfig build();
 	}
 
@@ -201,6 +224,8 @@ public abstract class SlackNotificationConfig implements EventNotificationConfig
 			.acknowledge(ValueReference.of(acknowledge()))
 			.preformat(ValueReference.of(preformat()))
 			.token(ValueReference.of(token()))
+			.aggregationWindow(ValueReference.of(aggregationWindow()))
+			.aggregationTopItems(ValueReference.of(aggregationTopItems()))
 			.build();
 	}
 }
\ No newline at end of file
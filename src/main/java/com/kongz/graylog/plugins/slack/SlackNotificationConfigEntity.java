@@ -74,6 +74,12 @@ public abstract class SlackNotificationConfigEntity implements EventNotification
 	@JsonProperty(SlackNotificationConfig.FIELD_TOKEN)
 	public abstract ValueReference token();
 
+	@JsonProperty(SlackNotificationConfig.FIELD_AGGREGATION_WINDOW)
+	public abstract ValueReference aggregationWindow();
+
+	@JsonProperty(SlackNotificationConfig.FIELD_AGGREGATION_TOP_ITEMS)
+	public abstract ValueReference aggregationTopItems();
+
 	public static Builder builder() {
 		return Builder.create();
 	}
@@ -85,7 +91,9 @@ public abstract class SlackNotificationConfigEntity implements EventNotification
 
 		@JsonCreator
 		public static Builder create() {
-			return new AutoValue_SlackNotificationConfigEntity.Builder().type(TYPE_NAME);
+			return new AutoValue_SlackNotificationConfigEntity.Builder().type(TYPE_NAME)
+				.aggregationWindow(ValueReference.of(0))
+				.aggregationTopItems(ValueReference.of(5));
 		}
 
 		@JsonProperty(SlackNotificationConfig.FIELD_WEBHOOK_URL)
@@ -142,6 +150,12 @@ public abstract class SlackNotificationConfigEntity implements EventNotification
 		@JsonProperty(SlackNotificationConfig.FIELD_TOKEN)
 		public abstract Builder token(ValueReference token);
 
+		@JsonProperty(SlackNotificationConfig.FIELD_AGGREGATION_WINDOW)
+		public abstract Builder aggregationWindow(ValueReference aggregationWindow);
+
+		@JsonProperty(SlackNotificationConfig.FIELD_AGGREGATION_TOP_ITEMS)
+		public abstract Builder aggregationTopItems(ValueReference aggregationTopItems);
+
 		public abstract SlackNotificationConfigEntity build();
 	}
 
@@ -166,6 +180,8 @@ public abstract class SlackNotificationConfigEntity implements EventNotification
 			.fields(fields().asString(parameters))
 			.acknowledge(acknowledge().asBoolean(parameters))
 			.preformat(preformat().asBoolean(parameters))
-			.token(token().asString(parameters)).build();
+			.token(token().asString(parameters))
+			.aggregationWindow(aggregationWindow().asInteger(parameters))
+			.aggregationTopItems(aggregationTopItems().asInteger(parameters)).build();
 	}
 }
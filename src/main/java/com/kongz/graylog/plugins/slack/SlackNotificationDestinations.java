@@ -0,0 +1,36 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.graylog.events.notifications.DBNotificationService;
+import org.graylog.events.notifications.NotificationDto;
+
+/**
+ * Looks up where the messages of a Slack notification are sent. Components which keep messages
+ * after the notification returned, such as {@link SlackOutbox}, store the notification ID rather
+ * than the webhook URL and token, and read the destination from the current configuration when
+ * the message is sent.
+ */
+@Singleton
+public class SlackNotificationDestinations {
+  private final DBNotificationService notificationService;
+
+  @Inject
+  public SlackNotificationDestinations(DBNotificationService notificationService) {
+    this.notificationService = notificationService;
+  }
+
+  /**
+   * @param notificationId ID of a notification
+   * @return the destination, or empty if the notification was deleted or is not a Slack notification
+   */
+  public Optional<SlackDestination> get(String notificationId) {
+    return notificationService.get(notificationId)
+        .map(NotificationDto::config)
+        .filter(SlackNotificationConfig.class::isInstance)
+        .map(config -> SlackDestination.of((SlackNotificationConfig) config));
+  }
+}
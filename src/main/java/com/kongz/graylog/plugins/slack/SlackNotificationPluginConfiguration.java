@@ -0,0 +1,281 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.github.joschi.jadconfig.Parameter;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
+import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
+import com.github.joschi.jadconfig.validators.PositiveSizeValidator;
+
+import org.graylog2.plugin.PluginConfigBean;
+
+/**
+ * Node level settings of the plugin. The values are read from Graylog server configuration file
+ * and can be injected with <code>@Named("parameter_name")</code>.
+ */
+public class SlackNotificationPluginConfiguration implements PluginConfigBean {
+  public static final String HTTP_CONNECT_TIMEOUT = "slack_notification_http_connect_timeout";
+  public static final String HTTP_READ_TIMEOUT = "slack_notification_http_read_timeout";
+  public static final String HTTP_TOTAL_TIMEOUT = "slack_notification_http_total_timeout";
+  public static final String HTTP2_ENABLED = "slack_notification_http2_enabled";
+  public static final String USER_DIRECTORY_FULL_LOAD_INTERVAL = "slack_notification_user_directory_full_load_interval";
+  public static final String USER_DIRECTORY_MISS_TTL = "slack_notification_user_directory_miss_ttl";
+  public static final String DELIVERY_ASYNC = "slack_notification_delivery_async";
+  public static final String DELIVERY_QUEUE_SIZE = "slack_notification_delivery_queue_size";
+  public static final String DELIVERY_WORKERS = "slack_notification_delivery_workers";
+  public static final String DELIVERY_VIRTUAL_THREADS = "slack_notification_delivery_virtual_threads";
+  public static final String DELIVERY_BACK_PRESSURE = "slack_notification_delivery_back_pressure";
+  public static final String DELIVERY_BLOCK_TIMEOUT = "slack_notification_delivery_block_timeout";
+  public static final String RATE_LIMIT_PER_CHANNEL = "slack_notification_rate_limit_per_channel";
+  public static final String RATE_LIMIT_PER_TOKEN = "slack_notification_rate_limit_per_token";
+  public static final String RATE_LIMIT_BURST = "slack_notification_rate_limit_burst";
+  public static final String RATE_LIMIT_MAX_WAIT = "slack_notification_rate_limit_max_wait";
+  public static final String STREAM_CACHE_TTL = "slack_notification_stream_cache_ttl";
+  public static final String RENDER_PARALLEL = "slack_notification_render_parallel";
+  public static final String RENDER_PARALLELISM = "slack_notification_render_parallelism";
+  public static final String RENDER_PARALLEL_THRESHOLD = "slack_notification_render_parallel_threshold";
+  public static final String PAYLOAD_MAX_SIZE = "slack_notification_payload_max_size";
+  public static final String ATTACHMENT_MAX_TEXT = "slack_notification_attachment_max_text";
+  public static final String OUTBOX_ENABLED = "slack_notification_outbox_enabled";
+  public static final String OUTBOX_SEGMENT_SIZE = "slack_notification_outbox_segment_size";
+  public static final String OUTBOX_MAX_SIZE = "slack_notification_outbox_max_size";
+  public static final String OUTBOX_RETRY_INTERVAL = "slack_notification_outbox_retry_interval";
+  public static final String OUTBOX_MAX_AGE = "slack_notification_outbox_max_age";
+  public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD = "slack_notification_circuit_breaker_failure_threshold";
+  public static final String CIRCUIT_BREAKER_OPEN_DURATION = "slack_notification_circuit_breaker_open_duration";
+  public static final String ACTION_ASYNC = "slack_notification_action_async";
+  public static final String ACTION_QUEUE_SIZE = "slack_notification_action_queue_size";
+  public static final String ACTION_WORKERS = "slack_notification_action_workers";
+  public static final String ACTION_PROXY_ADDRESS = "slack_notification_action_proxy_address";
+
+  @Parameter(value = HTTP_CONNECT_TIMEOUT, validators = PositiveDurationValidator.class)
+  private Duration httpConnectTimeout = Duration.seconds(5);
+
+  @Parameter(value = HTTP_READ_TIMEOUT, validators = PositiveDurationValidator.class)
+  private Duration httpReadTimeout = Duration.seconds(10);
+
+  @Parameter(value = HTTP_TOTAL_TIMEOUT, validators = PositiveDurationValidator.class)
+  private Duration httpTotalTimeout = Duration.seconds(30);
+
+  @Parameter(value = HTTP2_ENABLED)
+  private boolean http2Enabled = false;
+
+  @Parameter(value = USER_DIRECTORY_FULL_LOAD_INTERVAL, validators = PositiveDurationValidator.class)
+  private Duration userDirectoryFullLoadInterval = Duration.hours(1);
+
+  @Parameter(value = USER_DIRECTORY_MISS_TTL, validators = PositiveDurationValidator.class)
+  private Duration userDirectoryMissTtl = Duration.minutes(15);
+
+  @Parameter(value = DELIVERY_ASYNC)
+  private boolean deliveryAsync = false;
+
+  @Parameter(value = DELIVERY_QUEUE_SIZE, validators = PositiveIntegerValidator.class)
+  private int deliveryQueueSize = 1000;
+
+  @Parameter(value = DELIVERY_WORKERS, validators = PositiveIntegerValidator.class)
+  private int deliveryWorkers = 4;
+
+  @Parameter(value = DELIVERY_VIRTUAL_THREADS)
+  private boolean deliveryVirtualThreads = false;
+
+  @Parameter(value = DELIVERY_BACK_PRESSURE)
+  private String deliveryBackPressure = "block";
+
+  @Parameter(value = DELIVERY_BLOCK_TIMEOUT, validators = PositiveDurationValidator.class)
+  private Duration deliveryBlockTimeout = Duration.seconds(10);
+
+  @Parameter(value = RATE_LIMIT_PER_CHANNEL)
+  private double rateLimitPerChannel = 1.0;
+
+  @Parameter(value = RATE_LIMIT_PER_TOKEN)
+  private double rateLimitPerToken = 10.0;
+
+  @Parameter(value = RATE_LIMIT_BURST, validators = PositiveIntegerValidator.class)
+  private int rateLimitBurst = 3;
+
+  @Parameter(value = RATE_LIMIT_MAX_WAIT, validators = PositiveDurationValidator.class)
+  private Duration rateLimitMaxWait = Duration.seconds(5);
+
+  @Parameter(value = STREAM_CACHE_TTL, validators = PositiveDurationValidator.class)
+  private Duration streamCacheTtl = Duration.minutes(1);
+
+  @Parameter(value = RENDER_PARALLEL)
+  private boolean renderParallel = false;
+
+  @Parameter(value = RENDER_PARALLELISM, validators = PositiveIntegerValidator.class)
+  private int renderParallelism = 4;
+
+  @Parameter(value = RENDER_PARALLEL_THRESHOLD, validators = PositiveIntegerValidator.class)
+  private int renderParallelThreshold = 20;
+
+  @Parameter(value = PAYLOAD_MAX_SIZE, validators = PositiveSizeValidator.class)
+  private Size payloadMaxSize = Size.kilobytes(512);
+
+  @Parameter(value = ATTACHMENT_MAX_TEXT, validators = PositiveIntegerValidator.class)
+  private int attachmentMaxText = 3000;
+
+  @Parameter(value = OUTBOX_ENABLED)
+  private boolean outboxEnabled = false;
+
+  @Parameter(value = OUTBOX_SEGMENT_SIZE, validators = PositiveSizeValidator.class)
+  private Size outboxSegmentSize = Size.megabytes(16);
+
+  @Parameter(value = OUTBOX_MAX_SIZE, validators = PositiveSizeValidator.class)
+  private Size outboxMaxSize = Size.megabytes(256);
+
+  @Parameter(value = OUTBOX_RETRY_INTERVAL, validators = PositiveDurationValidator.class)
+  private Duration outboxRetryInterval = Duration.seconds(30);
+
+  @Parameter(value = OUTBOX_MAX_AGE, validators = PositiveDurationValidator.class)
+  private Duration outboxMaxAge = Duration.hours(6);
+
+  @Parameter(value = CIRCUIT_BREAKER_FAILURE_THRESHOLD, validators = PositiveIntegerValidator.class)
+  private int circuitBreakerFailureThreshold = 5;
+
+  @Parameter(value = CIRCUIT_BREAKER_OPEN_DURATION, validators = PositiveDurationValidator.class)
+  private Duration circuitBreakerOpenDuration = Duration.seconds(30);
+
+  @Parameter(value = ACTION_ASYNC)
+  private boolean actionAsync = false;
+
+  @Parameter(value = ACTION_QUEUE_SIZE, validators = PositiveIntegerValidator.class)
+  private int actionQueueSize = 100;
+
+  @Parameter(value = ACTION_WORKERS, validators = PositiveIntegerValidator.class)
+  private int actionWorkers = 2;
+
+  @Parameter(value = ACTION_PROXY_ADDRESS)
+  private String actionProxyAddress = "";
+
+  public Duration getHttpConnectTimeout() {
+    return httpConnectTimeout;
+  }
+
+  public Duration getHttpReadTimeout() {
+    return httpReadTimeout;
+  }
+
+  public Duration getHttpTotalTimeout() {
+    return httpTotalTimeout;
+  }
+
+  public boolean isHttp2Enabled() {
+    return http2Enabled;
+  }
+
+  public Duration getUserDirectoryFullLoadInterval() {
+    return userDirectoryFullLoadInterval;
+  }
+
+  public Duration getUserDirectoryMissTtl() {
+    return userDirectoryMissTtl;
+  }
+
+  public boolean isDeliveryAsync() {
+    return deliveryAsync;
+  }
+
+  public int getDeliveryQueueSize() {
+    return deliveryQueueSize;
+  }
+
+  public int getDeliveryWorkers() {
+    return deliveryWorkers;
+  }
+
+  public boolean isDeliveryVirtualThreads() {
+    return deliveryVirtualThreads;
+  }
+
+  public String getDeliveryBackPressure() {
+    return deliveryBackPressure;
+  }
+
+  public Duration getDeliveryBlockTimeout() {
+    return deliveryBlockTimeout;
+  }
+
+  public double getRateLimitPerChannel() {
+    return rateLimitPerChannel;
+  }
+
+  public double getRateLimitPerToken() {
+    return rateLimitPerToken;
+  }
+
+  public int getRateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  public Duration getRateLimitMaxWait() {
+    return rateLimitMaxWait;
+  }
+
+  public Duration getStreamCacheTtl() {
+    return streamCacheTtl;
+  }
+
+  public boolean isRenderParallel() {
+    return renderParallel;
+  }
+
+  public int getRenderParallelism() {
+    return renderParallelism;
+  }
+
+  public int getRenderParallelThreshold() {
+    return renderParallelThreshold;
+  }
+
+  public Size getPayloadMaxSize() {
+    return payloadMaxSize;
+  }
+
+  public int getAttachmentMaxText() {
+    return attachmentMaxText;
+  }
+
+  public boolean isOutboxEnabled() {
+    return outboxEnabled;
+  }
+
+  public Size getOutboxSegmentSize() {
+    return outboxSegmentSize;
+  }
+
+  public Size getOutboxMaxSize() {
+    return outboxMaxSize;
+  }
+
+  public Duration getOutboxRetryInterval() {
+    return outboxRetryInterval;
+  }
+
+  public Duration getOutboxMaxAge() {
+    return outboxMaxAge;
+  }
+
+  public int getCircuitBreakerFailureThreshold() {
+    return circuitBreakerFailureThreshold;
+  }
+
+  public Duration getCircuitBreakerOpenDuration() {
+    return circuitBreakerOpenDuration;
+  }
+
+  public boolean isActionAsync() {
+    return actionAsync;
+  }
+
+  public int getActionQueueSize() {
+    return actionQueueSize;
+  }
+
+  public int getActionWorkers() {
+    return actionWorkers;
+  }
+
+  public String getActionProxyAddress() {
+    return actionProxyAddress;
+  }
+}
@@ -1,11 +1,21 @@
 package com.kongz.graylog.plugins.slack;
 
+import java.util.Collections;
+import java.util.Set;
+
+import org.graylog2.plugin.PluginConfigBean;
 import org.graylog2.plugin.PluginModule;
 
 public class SlackNotificationPluginModule extends PluginModule {
 
+   @Override
+   public Set<? extends PluginConfigBean> getConfigBeans() {
+      return Collections.singleton(new SlackNotificationPluginConfiguration());
+   }
+
    @Override
    protected void configure() {
+      addConfigBeans();
       addNotificationType(
          SlackNotificationConfig.TYPE_NAME, 
          SlackNotificationConfig.class, 
@@ -14,5 +24,8 @@ public class SlackNotificationPluginModule extends PluginModule {
          SlackNotificationConfigEntity.TYPE_NAME,
          SlackNotificationConfigEntity.class);
       addRestResource(SlackActionCallback.class);
+      addRestResource(SlackCircuitBreakerResource.class);
+      bind(SlackJson.class).asEagerSingleton();
+      serviceBinder().addBinding().to(SlackShutdownService.class);
    }
 }
\ No newline at end of file
@@ -0,0 +1,645 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.graylog.events.notifications.EventNotificationException;
+import org.graylog.events.notifications.PermanentEventNotificationException;
+import org.graylog.events.notifications.TemporaryEventNotificationException;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of Slack messages on the local disk of the node. A notification only appends its
+ * message, which does not depend on Slack being reachable. A single drainer sends the messages in
+ * order and saves its position in a checkpoint file after each message, so a restarted node
+ * continues where it stopped and a message is sent at least once.
+ *
+ * <p>The log is split into memory-mapped segment files under <code>data_dir/slack-outbox</code>.
+ * Each record is its length, its CRC32 and the notification ID and JSON of a message. Webhook URLs
+ * and tokens are not written to disk, the destination is read from the notification when the
+ * message is sent, and messages of a deleted notification are dropped. A segment is
+ * deleted once it has been sent. A record which fails its checksum ends its segment and the drainer
+ * continues with the next segment.
+ *
+ * <p>When a destination cannot be reached, its message is parked: the record is appended again at
+ * the end of the log and the destination is not called until its retry time, so messages of other
+ * destinations keep being sent. When the drainer reaches the first message it parked, it waits
+ * for the first retry time, messages appended in the meantime are sent after the wait. A message which Slack rejects with a client error is dropped, a message which
+ * could not be sent within the maximum age is dropped and reported as a system notification.
+ *
+ * <p>The drainer runs on a thread of its own, sending a message blocks it until Slack answers.
+ */
+@Singleton
+public class SlackOutbox {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackOutbox.class);
+  private static final String DIRECTORY = "slack-outbox";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String CHECKPOINT = "checkpoint";
+  /** length and CRC32 of a record */
+  private static final int HEADER_SIZE = 8;
+  private static final Record END = new Record(-1, -1, null);
+  private static final Record CORRUPTED = new Record(-1, -1, null);
+
+  private final boolean enabled;
+  private final Path directory;
+  private final int segmentSize;
+  private final long maxSize;
+  private final long retryIntervalMs;
+  private final long maxAgeMs;
+  private final SlackClientFactory clientFactory;
+  private final SlackNotificationDestinations destinations;
+  private final SlackJson json;
+  private final NotificationService notificationService;
+  private final NodeId nodeId;
+  private final ScheduledExecutorService scheduler;
+  private final Clock clock;
+  private final AtomicBoolean draining = new AtomicBoolean();
+  // retry time by destination, only used by the drainer
+  private final Map<SlackDestination, Long> parked = new HashMap<>();
+  private final Meter appended;
+  private final Meter sent;
+  private final Meter failed;
+  private final Meter parkedMessages;
+  private final Meter dropped;
+  private final Meter expired;
+  private final Meter corrupted;
+
+  // guarded by this
+  private boolean open;
+  private Segment writer;
+  private int writePosition;
+  private Segment reader;
+  private int readPosition;
+
+  @Inject
+  public SlackOutbox(
+      @Named(SlackNotificationPluginConfiguration.OUTBOX_ENABLED) boolean enabled,
+      @Named("data_dir") Path dataDir,
+      @Named(SlackNotificationPluginConfiguration.OUTBOX_SEGMENT_SIZE) Size segmentSize,
+      @Named(SlackNotificationPluginConfiguration.OUTBOX_MAX_SIZE) Size maxSize,
+      @Named(SlackNotificationPluginConfiguration.OUTBOX_RETRY_INTERVAL) Duration retryInterval,
+      @Named(SlackNotificationPluginConfiguration.OUTBOX_MAX_AGE) Duration maxAge,
+      SlackClientFactory clientFactory,
+      SlackNotificationDestinations destinations,
+      SlackJson json,
+      NotificationService notificationService,
+      NodeId nodeId,
+      MetricRegistry metricRegistry) {
+    this(enabled, dataDir, segmentSize, maxSize, retryInterval, maxAge, clientFactory, destinations, json,
+        notificationService, nodeId,
+        enabled ? Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("slack-outbox-%d").setDaemon(true).build()) : null,
+        Clock.systemUTC(), metricRegistry);
+  }
+
+  SlackOutbox(boolean enabled, Path dataDir, Size segmentSize, Size maxSize, Duration retryInterval, Duration maxAge,
+      SlackClientFactory clientFactory, SlackNotificationDestinations destinations, SlackJson json,
+      NotificationService notificationService, NodeId nodeId, ScheduledExecutorService scheduler, Clock clock,
+      MetricRegistry metricRegistry) {
+    this.enabled = enabled;
+    this.directory = dataDir == null ? null : dataDir.resolve(DIRECTORY);
+    this.segmentSize = (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE);
+    this.maxSize = maxSize.toBytes();
+    this.retryIntervalMs = retryInterval.toMilliseconds();
+    this.maxAgeMs = maxAge.toMilliseconds();
+    this.clientFactory = clientFactory;
+    this.destinations = destinations;
+    this.json = json;
+    this.notificationService = notificationService;
+    this.nodeId = nodeId;
+    this.scheduler = scheduler;
+    this.clock = clock;
+    this.appended = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "appended"));
+    this.sent = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "sent"));
+    this.failed = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "failed"));
+    this.parkedMessages = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "parked"));
+    this.dropped = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "dropped"));
+    this.expired = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "expired"));
+    this.corrupted = metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "corrupted"));
+    if (enabled) {
+      try {
+        recover();
+        open = true;
+        // messages left by the previous run
+        drainSoon();
+      } catch (IOException | RuntimeException e) {
+        LOG.error("Could not open Slack outbox in {}, notifications will be retried by Graylog", directory, e);
+      }
+    }
+  }
+
+  /**
+   * @return true if messages should be appended to the outbox instead of sent by the caller
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Append a message to be sent by the drainer.
+   *
+   * @param notificationId ID of the notification whose destination the message is sent to
+   * @param message the message
+   * @throws TemporaryEventNotificationException if the outbox is full or cannot be written
+   * @throws PermanentEventNotificationException if the message is larger than a segment
+   */
+  public void append(String notificationId, SlackMessage message) throws EventNotificationException {
+    byte[] body = encode(notificationId, clock.millis(), message);
+    if (HEADER_SIZE + body.length > segmentSize) {
+      throw new PermanentEventNotificationException("Slack message of " + body.length
+          + " bytes does not fit into a Slack outbox segment");
+    }
+    writeRecord(body);
+    appended.mark();
+    drainSoon();
+  }
+
+  /**
+   * @return the record which was written
+   */
+  private synchronized Record writeRecord(byte[] body) throws TemporaryEventNotificationException {
+    if (!open) {
+      throw new TemporaryEventNotificationException("Slack outbox is not available");
+    }
+    try {
+      if (writePosition + HEADER_SIZE + body.length > writer.capacity) {
+        if ((writer.id - reader.id + 2) * (long) segmentSize > maxSize) {
+          throw new TemporaryEventNotificationException("Slack outbox is full");
+        }
+        roll();
+      }
+      Record record = new Record(writer.id, writePosition, body);
+      writePosition = write(writer, writePosition, body);
+      return record;
+    } catch (IOException | UncheckedIOException e) {
+      throw new TemporaryEventNotificationException("Could not write to Slack outbox", e);
+    }
+  }
+
+  /**
+   * Stop the drainer, flush the segment being written and stop accepting messages. Messages which
+   * were not sent are sent after the next start.
+   */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    if (open) {
+      open = false;
+      writer.buffer.force();
+      writer.close();
+      reader.close();
+    }
+  }
+
+  private void drainSoon() {
+    if (draining.compareAndSet(false, true)) {
+      schedule(0);
+    }
+  }
+
+  private void schedule(long delayMs) {
+    try {
+      scheduler.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // node is shutting down, the next start continues from the checkpoint
+      draining.set(false);
+    }
+  }
+
+  private void drain() {
+    // first record parked by this run, the records from there on were all read in this run
+    Record firstParked = null;
+    try {
+      Record record;
+      while ((record = next()) != null) {
+        if (firstParked != null && !record.isBefore(firstParked)) {
+          // draining stays set so parked messages are not read again until one can be sent
+          schedule(nextRetryMs());
+          return;
+        }
+        long retryAfterMs = deliver(record);
+        if (retryAfterMs > 0) {
+          Record copy;
+          try {
+            copy = writeRecord(record.body);
+          } catch (TemporaryEventNotificationException e) {
+            // the outbox is full, wait for the destination instead
+            schedule(retryAfterMs);
+            return;
+          }
+          parkedMessages.mark();
+          if (firstParked == null) {
+            firstParked = copy;
+          }
+        }
+        commit(record);
+      }
+    } catch (RuntimeException e) {
+      LOG.error("Slack outbox drainer failed, retrying in {}ms", retryIntervalMs, e);
+      schedule(retryIntervalMs);
+      return;
+    }
+    draining.set(false);
+    // a message may have been appended after the last read
+    if (hasPending()) {
+      drainSoon();
+    }
+  }
+
+  /**
+   * @return milliseconds until a parked destination is called again
+   */
+  private long nextRetryMs() {
+    long now = clock.millis();
+    parked.values().removeIf(retryAt -> retryAt <= now);
+    if (parked.isEmpty()) {
+      return 1;
+    }
+    long next = now + retryIntervalMs;
+    for (Long retryAt : parked.values()) {
+      next = Math.min(next, retryAt);
+    }
+    return next - now;
+  }
+
+  /**
+   * @return 0 if the record is done with, or milliseconds to wait before it is sent again
+   */
+  private long deliver(Record record) {
+    String notificationId;
+    long appendedAt;
+    SlackMessage message;
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.body))) {
+      notificationId = in.readUTF();
+      appendedAt = in.readLong();
+      message = json.messageReader().readValue((InputStream) in);
+    } catch (IOException e) {
+      corrupted.mark();
+      LOG.error("Dropping unreadable record of Slack outbox segment {}", record.segment, e);
+      return 0;
+    }
+    Optional<SlackDestination> resolved = destinations.get(notificationId);
+    if (!resolved.isPresent()) {
+      dropped.mark();
+      LOG.warn("Slack notification <{}> of a queued message does not exist anymore, dropping it", notificationId);
+      return 0;
+    }
+    SlackDestination destination = resolved.get();
+    long now = clock.millis();
+    Long retryAt = parked.get(destination);
+    if (retryAt != null && retryAt > now) {
+      if (now - appendedAt >= maxAgeMs) {
+        expire(destination, notificationId, appendedAt, "its destination could not be reached");
+        return 0;
+      }
+      return retryAt - now;
+    }
+    long retryAfterMs;
+    String error;
+    try {
+      clientFactory.get(destination).send(message);
+      sent.mark();
+      parked.remove(destination);
+      return 0;
+    } catch (SlackClient.SlackRateLimitException e) {
+      retryAfterMs = Math.max(1, e.getRetryAfterMs());
+      error = e.getMessage();
+    } catch (SlackClient.SlackCircuitOpenException e) {
+      retryAfterMs = Math.max(1, e.getRetryAfterMs());
+      error = e.getMessage();
+    } catch (SlackClient.SlackResponseException e) {
+      if (e.isClientError()) {
+        dropped.mark();
+        LOG.error("Slack rejected a queued message to {}, dropping it", destination, e);
+        return 0;
+      }
+      failed.mark();
+      retryAfterMs = retryIntervalMs;
+      error = e.getMessage();
+    } catch (SlackClient.SlackClientException e) {
+      failed.mark();
+      retryAfterMs = retryIntervalMs;
+      error = e.getMessage();
+    }
+    if (now - appendedAt >= maxAgeMs) {
+      expire(destination, notificationId, appendedAt, error);
+      return 0;
+    }
+    LOG.warn("Could not send queued message to Slack {}, retrying in {}ms: {}", destination, retryAfterMs, error);
+    parked.put(destination, now + retryAfterMs);
+    return retryAfterMs;
+  }
+
+  private void expire(SlackDestination destination, String notificationId, long appendedAt, String error) {
+    expired.mark();
+    LOG.error("Dropping queued message of Slack notification <{}> to {} after {}ms: {}", notificationId, destination,
+        clock.millis() - appendedAt, error);
+    String errorMessage = String.format("Dropped a queued message of Slack notification <%s> which could not be sent"
+        + " within %dms. %s", notificationId, maxAgeMs, error);
+    final Notification systemNotification = notificationService.buildNow()
+        .addNode(nodeId.toString())
+        .addType(Notification.Type.GENERIC)
+        .addSeverity(Notification.Severity.URGENT)
+        .addDetail("title", "SlackNotification Failed")
+        .addDetail("description", errorMessage);
+    notificationService.publishIfFirst(systemNotification);
+  }
+
+  private synchronized boolean hasPending() {
+    return open && (reader.id != writer.id || readPosition < writePosition);
+  }
+
+  /**
+   * @return the next record to send or null if everything was sent
+   */
+  private synchronized Record next() {
+    while (open) {
+      boolean current = reader.id == writer.id;
+      Record record = read(reader, readPosition, current ? writePosition : reader.capacity);
+      if (record != END && record != CORRUPTED) {
+        return record;
+      }
+      if (record == CORRUPTED) {
+        corrupted.mark();
+        LOG.warn("Skipping corrupted Slack outbox segment {} after position {}", reader.id, readPosition);
+      }
+      if (current) {
+        readPosition = writePosition;
+        return null;
+      }
+      Segment done = reader;
+      reader = segment(done.id + 1);
+      readPosition = 0;
+      checkpoint();
+      done.close();
+      delete(done.id);
+    }
+    return null;
+  }
+
+  private synchronized void commit(Record record) {
+    if (open && record.segment == reader.id) {
+      readPosition = record.next;
+      checkpoint();
+    }
+  }
+
+  private Segment segment(long id) {
+    if (writer != null && writer.id == id) {
+      return writer;
+    }
+    try {
+      return Segment.open(segmentPath(id), id, segmentSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void roll() throws IOException {
+    writer.buffer.force();
+    if (writer != reader) {
+      writer.close();
+    }
+    writer = Segment.open(segmentPath(writer.id + 1), writer.id + 1, segmentSize);
+    writePosition = 0;
+  }
+
+  private void recover() throws IOException {
+    Files.createDirectories(directory);
+    List<Long> ids = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(file -> {
+        String name = file.getFileName().toString();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          try {
+            ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            // not a segment
+          }
+        }
+      });
+    }
+    Collections.sort(ids);
+    long first = ids.isEmpty() ? 1 : ids.get(0);
+    long last = ids.isEmpty() ? 1 : ids.get(ids.size() - 1);
+    long readId = first;
+    int readFrom = 0;
+    long[] checkpoint = readCheckpoint();
+    if (checkpoint != null && checkpoint[0] >= first && checkpoint[0] <= last) {
+      readId = checkpoint[0];
+      readFrom = (int) checkpoint[1];
+    }
+    for (long id : ids) {
+      if (id < readId) {
+        delete(id);
+      }
+    }
+    writer = Segment.open(segmentPath(last), last, segmentSize);
+    reader = readId == last ? writer : Segment.open(segmentPath(readId), readId, segmentSize);
+    readPosition = readFrom;
+    // the end of the log is the first record which is not complete
+    int position = readId == last ? readFrom : 0;
+    Record record;
+    while ((record = read(writer, position, writer.capacity)) != END && record != CORRUPTED) {
+      position = record.next;
+    }
+    writePosition = position;
+    if (record == CORRUPTED) {
+      // a write was torn, do not append behind it
+      corrupted.mark();
+      LOG.warn("Slack outbox segment {} ends with a corrupted record at position {}", last, position);
+      roll();
+    }
+    if (readId != writer.id || readPosition < writePosition) {
+      LOG.info("Slack outbox has unsent messages from segment {}, sending them", readId);
+    }
+  }
+
+  private long[] readCheckpoint() {
+    Path path = directory.resolve(CHECKPOINT);
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try {
+      String[] values = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+      return new long[] {Long.parseLong(values[0]), Long.parseLong(values[1])};
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Ignoring invalid Slack outbox checkpoint, sending from the oldest segment", e);
+      return null;
+    }
+  }
+
+  private void checkpoint() {
+    Path tmp = directory.resolve(CHECKPOINT + ".tmp");
+    try {
+      Files.write(tmp, (reader.id + " " + readPosition).getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // messages after the previous checkpoint are sent again after a restart
+      LOG.warn("Could not save Slack outbox checkpoint", e);
+    }
+  }
+
+  private void delete(long id) {
+    try {
+      Files.deleteIfExists(segmentPath(id));
+    } catch (IOException e) {
+      LOG.warn("Could not delete sent Slack outbox segment {}", id, e);
+    }
+  }
+
+  private Path segmentPath(long id) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+  }
+
+  private byte[] encode(String notificationId, long appendedAt, SlackMessage message) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeUTF(notificationId);
+      out.writeLong(appendedAt);
+      message.writeTo(json, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not encode Slack outbox record", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Write the body before the length, a record is complete once its length is set.
+   *
+   * @return position after the record
+   */
+  private static int write(Segment segment, int position, byte[] body) {
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    MappedByteBuffer buffer = segment.buffer;
+    buffer.put(position + HEADER_SIZE, body);
+    buffer.putInt(position + 4, (int) crc.getValue());
+    buffer.putInt(position, body.length);
+    buffer.force(position, HEADER_SIZE + body.length);
+    return position + HEADER_SIZE + body.length;
+  }
+
+  private static Record read(Segment segment, int position, int limit) {
+    if (position + HEADER_SIZE > limit) {
+      return END;
+    }
+    MappedByteBuffer buffer = segment.buffer;
+    int length = buffer.getInt(position);
+    if (length == 0) {
+      return END;
+    }
+    if (length < 0 || position + HEADER_SIZE + (long) length > limit) {
+      return CORRUPTED;
+    }
+    byte[] body = new byte[length];
+    buffer.get(position + HEADER_SIZE, body);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+      return CORRUPTED;
+    }
+    return new Record(segment.id, position, body);
+  }
+
+  private static final class Record {
+    private final long segment;
+    private final int position;
+    private final byte[] body;
+    private final int next;
+
+    private Record(long segment, int position, byte[] body) {
+      this.segment = segment;
+      this.position = position;
+      this.body = body;
+      this.next = body == null ? -1 : position + HEADER_SIZE + body.length;
+    }
+
+    private boolean isBefore(Record other) {
+      return segment < other.segment || (segment == other.segment && position < other.position);
+    }
+  }
+
+  private static final class Segment {
+    private final long id;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private Segment(long id, FileChannel channel, MappedByteBuffer buffer) {
+      this.id = id;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.capacity = buffer.capacity();
+    }
+
+    /**
+     * Map a segment file. A new file gets the segment size, an existing file keeps its size.
+     */
+    private static Segment open(Path path, long id, int segmentSize) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      try {
+        long size = channel.size() > 0 ? Math.min(channel.size(), Integer.MAX_VALUE) : segmentSize;
+        return new Segment(id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    /**
+     * The mapping stays valid after the channel is closed.
+     */
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug("Could not close Slack outbox segment {}", id, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A request body which is written in fixed size chunks. The chunks are handed to the HTTP client as
+ * they are, so a large message is never grown or copied into one contiguous array.
+ */
+public class SlackPayload extends OutputStream {
+  private static final int CHUNK_SIZE = 16 * 1024;
+
+  private final List<byte[]> chunks = new ArrayList<>();
+  private byte[] current;
+  private int position;
+  private int size;
+
+  @Override
+  public void write(int b) {
+    if (current == null || position == current.length) {
+      nextChunk();
+    }
+    current[position++] = (byte) b;
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    while (len > 0) {
+      if (current == null || position == current.length) {
+        nextChunk();
+      }
+      int n = Math.min(len, current.length - position);
+      System.arraycopy(b, off, current, position, n);
+      position += n;
+      off += n;
+      len -= n;
+      size += n;
+    }
+  }
+
+  private void nextChunk() {
+    current = new byte[CHUNK_SIZE];
+    position = 0;
+    chunks.add(current);
+  }
+
+  /**
+   * @return number of bytes written
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the written bytes, only the last chunk is trimmed to its length
+   */
+  public Iterable<byte[]> chunks() {
+    if (chunks.isEmpty()) {
+      return chunks;
+    }
+    List<byte[]> result = new ArrayList<>(chunks);
+    result.set(result.size() - 1, Arrays.copyOf(current, position));
+    return result;
+  }
+
+  /**
+   * @return the written bytes as UTF-8 text
+   */
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[size];
+    int offset = 0;
+    for (byte[] chunk : chunks()) {
+      System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+      offset += chunk.length;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
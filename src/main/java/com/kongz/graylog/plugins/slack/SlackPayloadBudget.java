@@ -0,0 +1,193 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+
+/**
+ * Fits a message into the limits of Slack before it is serialized. Long texts are cut with a
+ * marker, fields and attachments are capped, and attachments which do not fit into the payload
+ * size are replaced by one "N more messages" attachment. The size of the payload is estimated
+ * from the strings of the message without encoding it.
+ */
+@Singleton
+public class SlackPayloadBudget {
+  /** Slack truncates message text after 40,000 characters */
+  static final int MAX_TEXT_LENGTH = 40000;
+  /** Slack accepts at most 100 attachments in a message */
+  static final int MAX_ATTACHMENTS = 100;
+  /** Slack shows at most 10 fields of an attachment */
+  static final int MAX_FIELDS = 10;
+  private static final String FENCE = "```";
+  // JSON keys, punctuation and numbers of a message and an attachment
+  private static final int MESSAGE_OVERHEAD = 128;
+  private static final int ATTACHMENT_OVERHEAD = 192;
+  private static final int FIELD_OVERHEAD = 40;
+  private static final int ACTION_OVERHEAD = 64;
+  // room for the "N more messages" attachment
+  private static final int SUMMARY_SIZE = ATTACHMENT_OVERHEAD + 128;
+
+  private final long maxSize;
+  private final int maxAttachmentText;
+  private final Meter truncated;
+  private final Meter droppedAttachments;
+  private final Meter droppedFields;
+  private final Histogram payloadSize;
+
+  @Inject
+  public SlackPayloadBudget(@Named(SlackNotificationPluginConfiguration.PAYLOAD_MAX_SIZE) Size maxSize,
+      @Named(SlackNotificationPluginConfiguration.ATTACHMENT_MAX_TEXT) int maxAttachmentText,
+      MetricRegistry metricRegistry) {
+    this.maxSize = maxSize.toBytes();
+    this.maxAttachmentText = maxAttachmentText;
+    this.truncated = metricRegistry.meter(MetricRegistry.name(SlackPayloadBudget.class, "truncated"));
+    this.droppedAttachments = metricRegistry.meter(MetricRegistry.name(SlackPayloadBudget.class, "droppedAttachments"));
+    this.droppedFields = metricRegistry.meter(MetricRegistry.name(SlackPayloadBudget.class, "droppedFields"));
+    this.payloadSize = metricRegistry.histogram(MetricRegistry.name(SlackPayloadBudget.class, "payloadSize"));
+  }
+
+  /**
+   * Trim the message in place.
+   *
+   * @param message the message to send
+   * @return estimated size of the message in bytes after trimming
+   */
+  public long apply(SlackMessage message) {
+    message.text = truncate(message.text, MAX_TEXT_LENGTH);
+    long size = MESSAGE_OVERHEAD + estimate(message.text) + estimate(message.channel) + estimate(message.username)
+        + estimate(message.iconUrl) + estimate(message.iconEmoji);
+    List<SlackMessage.Attachment> attachments = message.attachments;
+    if (attachments == null || attachments.isEmpty()) {
+      payloadSize.update(size);
+      return size;
+    }
+    int count = attachments.size();
+    int kept = 0;
+    while (kept < count) {
+      SlackMessage.Attachment attachment = attachments.get(kept);
+      trim(attachment);
+      boolean last = kept == count - 1;
+      // a summary takes the place of the attachments which are left out
+      int limit = last ? MAX_ATTACHMENTS : MAX_ATTACHMENTS - 1;
+      long reserve = last ? 0 : SUMMARY_SIZE;
+      long attachmentSize = estimate(attachment);
+      if (kept + 1 > limit || size + attachmentSize + reserve > maxSize) {
+        break;
+      }
+      size += attachmentSize;
+      kept++;
+    }
+    if (kept < count) {
+      int hidden = count - kept;
+      droppedAttachments.mark(hidden);
+      String text = hidden + (hidden == 1 ? " more message" : " more messages") + " not shown";
+      SlackMessage.Attachment summary = new SlackMessage.Attachment(text, text, null, attachments.get(kept).color,
+          null, null, null, new ArrayList<>(), null, null, null);
+      List<SlackMessage.Attachment> fitted = new ArrayList<>(attachments.subList(0, kept));
+      fitted.add(summary);
+      message.attachments = fitted;
+      size += estimate(summary);
+    }
+    payloadSize.update(size);
+    return size;
+  }
+
+  private void trim(SlackMessage.Attachment attachment) {
+    attachment.text = truncate(attachment.text, maxAttachmentText);
+    attachment.fallback = truncate(attachment.fallback, maxAttachmentText);
+    List<SlackMessage.AttachmentField> fields = attachment.fields;
+    if (fields != null) {
+      if (fields.size() > MAX_FIELDS) {
+        droppedFields.mark(fields.size() - MAX_FIELDS);
+        attachment.fields = fields = new ArrayList<>(fields.subList(0, MAX_FIELDS));
+      }
+      for (SlackMessage.AttachmentField field : fields) {
+        field.value = truncate(field.value, maxAttachmentText);
+      }
+    }
+  }
+
+  /**
+   * Cut a text which is longer than the limit. A preformatted text is closed again after the cut.
+   *
+   * @param text the text
+   * @param maxLength maximum number of characters to keep
+   * @return the text, or a shorter text which ends with a marker
+   */
+  String truncate(String text, int maxLength) {
+    if (text == null || text.length() <= maxLength) {
+      return text;
+    }
+    truncated.mark();
+    boolean fenced = text.length() > 2 * FENCE.length() && text.startsWith(FENCE) && text.endsWith(FENCE);
+    int end = fenced ? maxLength - FENCE.length() : maxLength;
+    if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+      end--;
+    }
+    int cut = text.length() - end - (fenced ? FENCE.length() : 0);
+    StringBuilder result = new StringBuilder(maxLength + 48).append(text, 0, Math.max(end, 0));
+    if (fenced) {
+      result.append(FENCE);
+    }
+    return result.append("\n_\u2026 ").append(cut).append(" more characters_").toString();
+  }
+
+  /**
+   * @return estimated size of the attachment as JSON
+   */
+  static long estimate(SlackMessage.Attachment attachment) {
+    long size = ATTACHMENT_OVERHEAD + estimate(attachment.fallback) + estimate(attachment.text)
+        + estimate(attachment.pretext) + estimate(attachment.color) + estimate(attachment.footerText)
+        + estimate(attachment.footerIconUrl) + estimate(attachment.callbackId);
+    if (attachment.fields != null) {
+      for (SlackMessage.AttachmentField field : attachment.fields) {
+        size += FIELD_OVERHEAD + estimate(field.title) + estimate(field.value);
+      }
+    }
+    if (attachment.actions != null) {
+      for (SlackMessage.Action action : attachment.actions) {
+        size += ACTION_OVERHEAD + estimate(action.name) + estimate(action.text) + estimate(action.type)
+            + estimate(action.value) + estimate(action.style);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return size of the string as a UTF-8 JSON string, including quotes and escapes
+   */
+  static long estimate(String value) {
+    if (value == null) {
+      return 0;
+    }
+    long size = 2;
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        size += 2;
+      } else if (c < 0x20) {
+        // \n, \t and friends take 2 bytes, other control characters take 6
+        size += c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f' ? 2 : 6;
+      } else if (c < 0x80) {
+        size++;
+      } else if (c < 0x800) {
+        size += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        // the JSON generator writes a surrogate pair as two escapes
+        size += 12;
+        i++;
+      } else {
+        size += 3;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,162 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Token buckets which keep the messages below Slack rate limits.
+ *
+ * <p>Slack allows about one message per second to a channel with short bursts, and limits the
+ * total number of messages of a token or webhook. A message takes a token from the bucket of its
+ * channel and from the bucket of its token. When either bucket is empty the caller waits until a
+ * token is available, or fails with {@link SlackClient.SlackRateLimitException} if that is longer
+ * than the maximum wait. A 429 response from Slack pauses the bucket for the
+ * <code>Retry-After</code> time.
+ */
+public class SlackRateLimiter {
+  private final double perChannel;
+  private final double perToken;
+  private final int burst;
+  private final long maxWaitNanos;
+  private final Ticker ticker;
+  private final Cache<String, Bucket> buckets = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterAccess(1, TimeUnit.HOURS)
+      .build();
+
+  /**
+   * @param perChannel messages per second to a channel
+   * @param perToken messages per second of a token or webhook
+   * @param burst number of messages which can be sent to a channel at once after a quiet period
+   * @param maxWaitMs maximum time a caller waits for a token
+   */
+  public SlackRateLimiter(double perChannel, double perToken, int burst, long maxWaitMs) {
+    this(perChannel, perToken, burst, maxWaitMs, Ticker.systemTicker());
+  }
+
+  SlackRateLimiter(double perChannel, double perToken, int burst, long maxWaitMs, Ticker ticker) {
+    checkArgument(perChannel > 0, "Rate limit per channel must be positive");
+    checkArgument(perToken > 0, "Rate limit per token must be positive");
+    this.perChannel = perChannel;
+    this.perToken = perToken;
+    this.burst = burst;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    this.ticker = ticker;
+  }
+
+  /**
+   * Take a token from both buckets, waiting if needed.
+   *
+   * @param tokenKey key of the token or webhook
+   * @param channelKey key of the channel, may be null if the channel is fixed by the webhook
+   */
+  public void acquire(String tokenKey, String channelKey) throws SlackClient.SlackClientException {
+    long waitNanos = reserve(tokenKey, channelKey);
+    if (waitNanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SlackClient.SlackClientException("Interrupted while waiting for Slack rate limit", e);
+    }
+  }
+
+  /**
+   * Take a token from both buckets without waiting.
+   *
+   * @return nanoseconds the caller has to wait before sending
+   */
+  long reserve(String tokenKey, String channelKey) throws SlackClient.SlackRateLimitException {
+    Bucket token = bucket("token:" + tokenKey, perToken);
+    Bucket channel = channelKey == null ? null : bucket("channel:" + tokenKey + ':' + channelKey, perChannel);
+    synchronized (this) {
+      long now = ticker.read();
+      long waitNanos = token.waitNanos(now);
+      if (channel != null) {
+        waitNanos = Math.max(waitNanos, channel.waitNanos(now));
+      }
+      if (waitNanos > maxWaitNanos) {
+        throw new SlackClient.SlackRateLimitException("Slack rate limit reached", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+      }
+      token.take();
+      if (channel != null) {
+        channel.take();
+      }
+      return waitNanos;
+    }
+  }
+
+  /**
+   * Stop sending to a key after Slack responded with 429.
+   *
+   * @param tokenKey key of the token or webhook
+   * @param channelKey key of the channel, may be null to pause the whole token
+   * @param retryAfterMs time from <code>Retry-After</code> header
+   */
+  public void pause(String tokenKey, String channelKey, long retryAfterMs) {
+    String key = channelKey == null ? "token:" + tokenKey : "channel:" + tokenKey + ':' + channelKey;
+    Bucket bucket = bucket(key, channelKey == null ? perToken : perChannel);
+    synchronized (this) {
+      bucket.pause(ticker.read() + TimeUnit.MILLISECONDS.toNanos(retryAfterMs));
+    }
+  }
+
+  private Bucket bucket(String key, double rate) {
+    try {
+      // A token may send one second worth of messages at once, split over many channels
+      return buckets.get(key, () -> new Bucket(rate, Math.max(burst, (int) Math.ceil(rate)), ticker.read()));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * A token bucket. Tokens may go below zero, which reserves the following tokens for callers
+   * which are already waiting. Guarded by the limiter.
+   */
+  private static final class Bucket {
+    private final double nanosPerToken;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    private Bucket(double rate, int burst, long now) {
+      this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / rate;
+      this.capacity = burst;
+      this.tokens = burst;
+      this.refilledAt = now;
+    }
+
+    private long waitNanos(long now) {
+      if (now > refilledAt) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) / nanosPerToken);
+        refilledAt = now;
+      }
+      // refilledAt is in the future while the bucket is paused
+      long wait = refilledAt - now;
+      if (tokens < 1) {
+        wait += (long) ((1 - tokens) * nanosPerToken);
+      }
+      return wait;
+    }
+
+    private void take() {
+      tokens -= 1;
+    }
+
+    private void pause(long until) {
+      if (until > refilledAt) {
+        refilledAt = until;
+        tokens = Math.min(tokens, 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of a notification interpreted once and shared by every event of the notification.
+ * Instances are immutable and kept by {@link RenderPlanCache}.
+ */
+public class SlackRenderPlan {
+  private static final String TIMESTAMP_FIELD = "timestamp";
+
+  private final SlackDestination destination;
+  private final String channel;
+  private final String userName;
+  private final String iconUrl;
+  private final String iconEmoji;
+  private final boolean linkNames;
+  private final String color;
+  private final int backlogItems;
+  private final boolean shortMode;
+  private final boolean preformat;
+  private final String footerText;
+  private final String footerIconUrl;
+  private final String tsField;
+  private final boolean reservedTimestamp;
+  private final String messageLinkPrefix;
+  private final String streamLinkPrefix;
+  private final List<String> customFields;
+  private final List<SlackMessage.Action> actions;
+  private final NotifyUsersResolver notifyUsers;
+  private final int aggregationWindow;
+  private final int aggregationTopItems;
+
+  public SlackRenderPlan(SlackNotificationConfig configuration) {
+    this.destination = SlackDestination.of(configuration);
+    this.channel = configuration.channel();
+    this.userName = configuration.userName();
+    String messageIcon = configuration.messageIcon();
+    if (isNullOrEmpty(messageIcon)) {
+      this.iconUrl = null;
+      this.iconEmoji = null;
+    } else if (SlackMessage.isIconUrl(messageIcon)) {
+      this.iconUrl = messageIcon;
+      this.iconEmoji = null;
+    } else {
+      this.iconUrl = null;
+      this.iconEmoji = messageIcon;
+    }
+    this.linkNames = configuration.linkNames();
+    this.color = configuration.color();
+    this.backlogItems = configuration.backlogItems();
+    this.shortMode = configuration.shortMode();
+    this.preformat = configuration.preformat();
+    this.footerText = isNullOrEmpty(configuration.footerText()) ? null : configuration.footerText();
+    this.footerIconUrl = configuration.footerIconUrl();
+    this.tsField = configuration.footerTsField();
+    // timestamp is reserved field in org.graylog2.notifications.NotificationImpl
+    this.reservedTimestamp = TIMESTAMP_FIELD.equals(tsField);
+    String graylogUrl = configuration.graylogUrl();
+    if (isNullOrEmpty(graylogUrl)) {
+      this.messageLinkPrefix = null;
+      this.streamLinkPrefix = null;
+    } else {
+      String base = graylogUrl.endsWith("/") ? graylogUrl : graylogUrl + '/';
+      this.messageLinkPrefix = base + "messages/";
+      this.streamLinkPrefix = base + "streams/";
+    }
+    List<String> fields = new ArrayList<>();
+    if (!isNullOrEmpty(configuration.fields())) {
+      for (String field : configuration.fields().split(",")) {
+        field = field.trim();
+        if (!field.isEmpty()) {
+          fields.add(field);
+        }
+      }
+    }
+    this.customFields = Collections.unmodifiableList(fields);
+    this.actions = configuration.acknowledge()
+      ? List.of(
+          new SlackMessage.Action("acknowledge", "Acknowledge", "true", "primary"),
+          new SlackMessage.Action("decline", "It is not me!!", "true", "danger"))
+      : null;
+    this.notifyUsers = isNullOrEmpty(configuration.notifyUsers()) ? null
+      : new NotifyUsersResolver(configuration.notifyUsers());
+    this.aggregationWindow = configuration.aggregationWindow();
+    this.aggregationTopItems = configuration.aggregationTopItems();
+  }
+
+  /**
+   * @param text message text
+   * @return an empty message with the sender, channel and icon of the notification
+   */
+  public SlackMessage newMessage(String text) {
+    return new SlackMessage(text, channel, userName, iconUrl, iconEmoji, linkNames, new ArrayList<>());
+  }
+
+  public SlackDestination destination() {
+    return destination;
+  }
+
+  public String channel() {
+    return channel;
+  }
+
+  public String color() {
+    return color;
+  }
+
+  public int backlogItems() {
+    return backlogItems;
+  }
+
+  public boolean shortMode() {
+    return shortMode;
+  }
+
+  public boolean preformat() {
+    return preformat;
+  }
+
+  /**
+   * @return footer template or null if there is no footer
+   */
+  public String footerText() {
+    return footerText;
+  }
+
+  public String footerIconUrl() {
+    return footerIconUrl;
+  }
+
+  public String tsField() {
+    return tsField;
+  }
+
+  /**
+   * @return true if the footer time is the message timestamp
+   */
+  public boolean isReservedTimestamp() {
+    return reservedTimestamp;
+  }
+
+  /**
+   * @return Graylog URL of messages ending with <code>/</code> or null if Graylog URL is not set
+   */
+  public String messageLinkPrefix() {
+    return messageLinkPrefix;
+  }
+
+  /**
+   * @return Graylog URL of streams ending with <code>/</code> or null if Graylog URL is not set
+   */
+  public String streamLinkPrefix() {
+    return streamLinkPrefix;
+  }
+
+  /**
+   * @return trimmed names of backlog fields to add into attachments
+   */
+  public List<String> customFields() {
+    return customFields;
+  }
+
+  /**
+   * @return acknowledge buttons shared by every attachment or null if acknowledge is disabled
+   */
+  public List<SlackMessage.Action> actions() {
+    return actions;
+  }
+
+  /**
+   * @return resolver of notify users text or null if nobody is notified
+   */
+  public NotifyUsersResolver notifyUsers() {
+    return notifyUsers;
+  }
+
+  public int aggregationWindow() {
+    return aggregationWindow;
+  }
+
+  public int aggregationTopItems() {
+    return aggregationTopItems;
+  }
+}
@@ -0,0 +1,53 @@
+package com.kongz.graylog.plugins.slack;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+
+/**
+ * Stops the threads and files of the plugin when Graylog shuts down. The components start their
+ * threads on first use, so there is nothing to do on start up.
+ *
+ * <p>Open aggregation windows are sent first while the delivery service and the outbox still take
+ * messages. Button answers are stopped next, then messages being sent and rendered, and the outbox
+ * is closed last so it is flushed after nothing else writes to it.
+ */
+@Singleton
+public class SlackShutdownService extends AbstractIdleService {
+  private final SlackAggregator aggregator;
+  private final SlackActionResponder actionResponder;
+  private final SlackDeliveryService deliveryService;
+  private final SlackAttachmentRenderer attachmentRenderer;
+  private final SlackOutbox outbox;
+  private final SlackClientFactory clientFactory;
+
+  @Inject
+  public SlackShutdownService(SlackAggregator aggregator,
+                              SlackActionResponder actionResponder,
+                              SlackDeliveryService deliveryService,
+                              SlackAttachmentRenderer attachmentRenderer,
+                              SlackOutbox outbox,
+                              SlackClientFactory clientFactory) {
+    this.aggregator = aggregator;
+    this.actionResponder = actionResponder;
+    this.deliveryService = deliveryService;
+    this.attachmentRenderer = attachmentRenderer;
+    this.outbox = outbox;
+    this.clientFactory = clientFactory;
+  }
+
+  @Override
+  protected void startUp() {
+  }
+
+  @Override
+  protected void shutDown() {
+    aggregator.stop();
+    actionResponder.stop();
+    deliveryService.stop();
+    attachmentRenderer.stop();
+    outbox.stop();
+    clientFactory.stop();
+  }
+}
@@ -0,0 +1,98 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * HTTP connection pool to Slack API. Connections are kept alive and reused by every
+ * {@link SlackClient} which goes through the same proxy.
+ */
+public class SlackTransport {
+  private final HttpClient httpClient;
+  private final Duration readTimeout;
+  private final Duration totalTimeout;
+
+  /**
+   * @param proxyAddress proxy in <code>host:port</code> or <code>http://host:port</code> format, may be empty
+   * @param http2 true to negotiate HTTP/2 with Slack
+   * @param connectTimeout maximum time to establish a connection
+   * @param readTimeout maximum time to wait for response headers after request was sent
+   * @param totalTimeout maximum time of a whole request
+   */
+  public SlackTransport(String proxyAddress, boolean http2, Duration connectTimeout, Duration readTimeout,
+      Duration totalTimeout) throws SlackClient.SlackClientException {
+    HttpClient.Builder builder = HttpClient.newBuilder()
+        .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .connectTimeout(connectTimeout);
+    if (!isNullOrEmpty(proxyAddress)) {
+      builder.proxy(ProxySelector.of(parseProxy(proxyAddress)));
+    }
+    this.httpClient = builder.build();
+    this.readTimeout = readTimeout;
+    this.totalTimeout = totalTimeout;
+  }
+
+  private static InetSocketAddress parseProxy(String proxyAddress) throws SlackClient.SlackClientException {
+    try {
+      URI proxyUri = new URI(proxyAddress);
+      if (proxyUri.getHost() == null) {
+        // <ProxyAddress>:<Port> without scheme
+        proxyUri = new URI("http://" + proxyAddress);
+      }
+      return new InetSocketAddress(proxyUri.getHost(), proxyUri.getPort());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new SlackClient.SlackClientException("Could not open connection to Slack API", e);
+    }
+  }
+
+  /**
+   * POST a JSON payload and wait for the response.
+   *
+   * @param uri Slack API or webhook URL
+   * @param token Slack token, may be empty
+   * @param jsonPayload request body
+   * @return response from Slack
+   */
+  public HttpResponse<String> post(URI uri, String token, SlackPayload jsonPayload) throws SlackClient.SlackClientException {
+    final HttpRequest request;
+    try {
+      HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+          .timeout(readTimeout)
+          .header("Content-Type", "application/json; charset=utf-8")
+          .POST(HttpRequest.BodyPublishers.ofByteArrays(jsonPayload.chunks()));
+      if (!isNullOrEmpty(token)) {
+        builder.header("Authorization", "Bearer " + token);
+      }
+      request = builder.build();
+    } catch (IllegalArgumentException e) {
+      throw new SlackClient.SlackClientException("Could not open connection to Slack API", e);
+    }
+    CompletableFuture<HttpResponse<String>> response =
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    try {
+      return response.get(totalTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new SlackClient.SlackClientException("Timed out after " + totalTimeout.toMillis() + "ms waiting for Slack API", e);
+    } catch (ExecutionException e) {
+      throw new SlackClient.SlackClientException("Could not POST to Slack API", e.getCause());
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new SlackClient.SlackClientException("Interrupted while waiting for Slack API", e);
+    }
+  }
+}
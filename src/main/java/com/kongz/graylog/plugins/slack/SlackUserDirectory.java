@@ -0,0 +1,339 @@
+package com.kongz.graylog.plugins.slack;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Slack members of a workspace indexed by display name, real name, normalized names and email.
+ *
+ * <p>Nothing is loaded until the first lookup, so notifications which do not mention users never
+ * call <code>users.list</code>. The first lookup loads the whole member list, then it is loaded
+ * again periodically in background. <code>users.list</code> cannot be filtered by update time, so
+ * there is no cheaper partial refresh. Names which are not found are remembered for a while so
+ * unknown names do not download the member list again.
+ *
+ * <p>Only one load runs at a time. Threads which need the member list while it is being loaded
+ * wait for the running load and share its result.
+ *
+ * <p>A lookup which is answered from memory counts as a hit, a lookup which has to download the
+ * member list counts as a miss.
+ */
+public class SlackUserDirectory {
+  private static final Logger LOG = LoggerFactory.getLogger(SlackUserDirectory.class);
+  private static final int PAGE_SIZE = 200;
+
+  private final SlackClient client;
+  private final ScheduledExecutorService scheduler;
+  private final long reloadIntervalMs;
+  private final Cache<String, Boolean> misses;
+  private final AtomicReference<CompletableFuture<Index>> inFlight = new AtomicReference<>();
+  private final Counter loads;
+  private final Counter coalescedWaiters;
+  private final Counter cacheHits;
+  private final Counter cacheMisses;
+  private volatile Index index;
+  // guarded by this
+  private ScheduledFuture<?> reloadTask;
+  private boolean stopped;
+
+  /**
+   * @param client a client with Slack token to read <code>users.list</code>
+   * @param scheduler scheduler for background loading, may be null to load on demand only
+   * @param reloadIntervalMs interval of member list loading after the first lookup
+   * @param missTtlMs how long a name which is not found is remembered
+   * @param metricRegistry registry for load metrics
+   */
+  public SlackUserDirectory(SlackClient client, ScheduledExecutorService scheduler, long reloadIntervalMs,
+      long missTtlMs, MetricRegistry metricRegistry) {
+    this.client = client;
+    this.scheduler = scheduler;
+    this.reloadIntervalMs = reloadIntervalMs;
+    this.misses = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterWrite(missTtlMs, TimeUnit.MILLISECONDS)
+      .build();
+    this.loads = metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "loads"));
+    this.coalescedWaiters = metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "coalescedWaiters"));
+    this.cacheHits = metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "hits"));
+    this.cacheMisses = metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "misses"));
+  }
+
+  /**
+   * Stop background loading.
+   */
+  public synchronized void stop() {
+    stopped = true;
+    if (reloadTask != null) {
+      reloadTask.cancel(false);
+      reloadTask = null;
+    }
+  }
+
+  synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * Load the member list again in background from now on. Called after each load, only the first
+   * call schedules.
+   */
+  private synchronized void scheduleReload() {
+    if (reloadTask != null || stopped || scheduler == null) {
+      return;
+    }
+    try {
+      reloadTask = scheduler.scheduleWithFixedDelay(() -> {
+        try {
+          load();
+        } catch (SlackClient.SlackClientException | RuntimeException e) {
+          LOG.warn("Could not load Slack users list", e);
+        }
+      }, reloadIntervalMs, reloadIntervalMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // node is shutting down
+      stopped = true;
+    }
+  }
+
+  /**
+   * Find a Slack member ID.
+   *
+   * @param key display name, real name, normalized name or email of a member
+   * @return member ID or null if not found
+   */
+  public String lookup(String key) throws SlackClient.SlackClientException {
+    if (misses.getIfPresent(key) != null) {
+      cacheHits.inc();
+      return null;
+    }
+    Index current = index;
+    if (current == null) {
+      cacheMisses.inc();
+      current = load();
+    } else {
+      cacheHits.inc();
+    }
+    String id = current.find(key);
+    if (id == null) {
+      misses.put(key, Boolean.TRUE);
+    }
+    return id;
+  }
+
+  /**
+   * Find Slack member IDs of many keys against the same member list.
+   *
+   * @param keys display names, real names, normalized names or emails of members
+   * @return member ID by key, keys which are not found are left out
+   */
+  public Map<String, String> lookupAll(Collection<String> keys) throws SlackClient.SlackClientException {
+    Map<String, String> ids = new HashMap<>();
+    Index current = index;
+    for (String key : keys) {
+      if (misses.getIfPresent(key) != null) {
+        cacheHits.inc();
+        continue;
+      }
+      if (current == null) {
+        cacheMisses.inc();
+        current = load();
+      } else {
+        cacheHits.inc();
+      }
+      String id = current.find(key);
+      if (id == null) {
+        misses.put(key, Boolean.TRUE);
+      } else {
+        ids.put(key, id);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Load whole member list and replace the indexes. If a load is already running, wait for it
+   * instead of starting another one.
+   */
+  Index load() throws SlackClient.SlackClientException {
+    CompletableFuture<Index> flight = new CompletableFuture<>();
+    CompletableFuture<Index> running = inFlight.compareAndExchange(null, flight);
+    if (running != null) {
+      coalescedWaiters.inc();
+      return await(running);
+    }
+    try {
+      Index loaded = loadAll();
+      flight.complete(loaded);
+      return loaded;
+    } catch (SlackClient.SlackClientException | RuntimeException e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.set(null);
+    }
+  }
+
+  private static Index await(CompletableFuture<Index> running) throws SlackClient.SlackClientException {
+    try {
+      return running.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SlackClient.SlackClientException) {
+        throw (SlackClient.SlackClientException) e.getCause();
+      }
+      throw new SlackClient.SlackClientException("Error while reading Slack users list", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SlackClient.SlackClientException("Interrupted while reading Slack users list", e);
+    }
+  }
+
+  private Index loadAll() throws SlackClient.SlackClientException {
+    loads.inc();
+    Index.Builder builder = new Index.Builder();
+    forEachPage(members -> members.forEach(builder::put));
+    Index loaded = builder.build();
+    synchronized (this) {
+      index = loaded;
+    }
+    misses.invalidateAll();
+    LOG.debug("Loaded {} Slack members", loaded.size());
+    scheduleReload();
+    return loaded;
+  }
+
+  private void forEachPage(PageConsumer consumer) throws SlackClient.SlackClientException {
+    String cursor = "";
+    do {
+      SlackUserList userList = client.listUsers(PAGE_SIZE, cursor);
+      consumer.accept(userList.members);
+      cursor = userList.responseMetadata == null ? null : userList.responseMetadata.nextCursor;
+    } while (!isNullOrEmpty(cursor));
+  }
+
+  private interface PageConsumer {
+    void accept(List<SlackMember> members);
+  }
+
+  /**
+   * An immutable set of lookup indexes.
+   */
+  static final class Index {
+    private final Map<String, Entry> byId;
+    private final Map<String, String> byDisplayName;
+    private final Map<String, String> byRealName;
+    private final Map<String, String> byNormalizedName;
+    private final Map<String, String> byEmail;
+
+    private Index(Builder builder) {
+      this.byId = builder.byId;
+      this.byDisplayName = builder.byDisplayName;
+      this.byRealName = builder.byRealName;
+      this.byNormalizedName = builder.byNormalizedName;
+      this.byEmail = builder.byEmail;
+    }
+
+    String find(String key) {
+      String id = byDisplayName.get(key);
+      if (id == null) {
+        id = byRealName.get(key);
+      }
+      if (id == null) {
+        id = byNormalizedName.get(key);
+      }
+      if (id == null) {
+        id = byEmail.get(key.toLowerCase(Locale.ROOT));
+      }
+      return id;
+    }
+
+    int size() {
+      return byId.size();
+    }
+
+    static final class Builder {
+      private final Map<String, Entry> byId;
+      private final Map<String, String> byDisplayName;
+      private final Map<String, String> byRealName;
+      private final Map<String, String> byNormalizedName;
+      private final Map<String, String> byEmail;
+
+      Builder() {
+        this.byId = new HashMap<>();
+        this.byDisplayName = new HashMap<>();
+        this.byRealName = new HashMap<>();
+        this.byNormalizedName = new HashMap<>();
+        this.byEmail = new HashMap<>();
+      }
+
+      void put(SlackMember member) {
+        if (!isIndexable(member)) {
+          return;
+        }
+        Entry entry = new Entry(member);
+        byId.put(entry.id, entry);
+        put(byDisplayName, entry.displayName, entry.id);
+        put(byRealName, entry.realName, entry.id);
+        put(byNormalizedName, entry.displayNameNormalized, entry.id);
+        put(byNormalizedName, entry.realNameNormalized, entry.id);
+        put(byEmail, entry.email, entry.id);
+      }
+
+      Index build() {
+        return new Index(this);
+      }
+
+      private static void put(Map<String, String> index, String key, String id) {
+        if (!isNullOrEmpty(key)) {
+          index.put(key, id);
+        }
+      }
+    }
+  }
+
+  private static boolean isIndexable(SlackMember member) {
+    return member.id != null && member.profile != null && Boolean.FALSE.equals(member.isBot)
+        && !Boolean.TRUE.equals(member.deleted);
+  }
+
+  /**
+   * Only the fields needed for lookup are kept from {@link SlackMember} and {@link SlackProfile}.
+   */
+  private static final class Entry {
+    private final String id;
+    private final String displayName;
+    private final String displayNameNormalized;
+    private final String realName;
+    private final String realNameNormalized;
+    private final String email;
+
+    private Entry(SlackMember member) {
+      SlackProfile profile = member.profile;
+      this.id = member.id;
+      this.displayName = profile.displayName;
+      this.displayNameNormalized = profile.displayNameNormalized;
+      this.realName = profile.realName;
+      this.realNameNormalized = profile.realNameNormalized;
+      this.email = profile.email == null ? null : profile.email.toLowerCase(Locale.ROOT);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamService;
+import org.graylog2.streams.events.StreamDeletedEvent;
+import org.graylog2.streams.events.StreamsChangedEvent;
+
+/**
+ * Node local copy of the stream titles used in Slack messages. Entries expire after a short time
+ * and are dropped as soon as Graylog reports that a stream was changed or deleted.
+ */
+@Singleton
+public class StreamMetadataCache {
+  private final StreamService streamService;
+  private final Cache<String, Optional<StreamMetadata>> streams;
+  private final Meter hits;
+  private final Meter misses;
+
+  @Inject
+  public StreamMetadataCache(StreamService streamService, EventBus serverEventBus,
+      @Named(SlackNotificationPluginConfiguration.STREAM_CACHE_TTL) Duration ttl, MetricRegistry metricRegistry) {
+    this.streamService = streamService;
+    this.streams = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .expireAfterWrite(ttl.toMilliseconds(), TimeUnit.MILLISECONDS)
+        .build();
+    this.hits = metricRegistry.meter(MetricRegistry.name(StreamMetadataCache.class, "hits"));
+    this.misses = metricRegistry.meter(MetricRegistry.name(StreamMetadataCache.class, "misses"));
+    serverEventBus.register(this);
+  }
+
+  /**
+   * @param streamIds stream IDs
+   * @return the streams which exist, in the order of the given IDs. Streams which are not cached
+   *         are loaded in one query.
+   */
+  public List<StreamMetadata> get(Collection<String> streamIds) {
+    Map<String, Optional<StreamMetadata>> found = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String id : streamIds) {
+      Optional<StreamMetadata> stream = streams.getIfPresent(id);
+      if (stream == null) {
+        missing.add(id);
+      } else {
+        found.put(id, stream);
+      }
+    }
+    hits.mark(found.size());
+    if (!missing.isEmpty()) {
+      misses.mark(missing.size());
+      Map<String, Optional<StreamMetadata>> loaded = new HashMap<>();
+      for (String id : missing) {
+        // Streams which do not exist are remembered too
+        loaded.put(id, Optional.empty());
+      }
+      for (Stream stream : streamService.loadByIds(missing)) {
+        loaded.put(stream.getId(), Optional.of(new StreamMetadata(stream.getId(), stream.getTitle())));
+      }
+      streams.putAll(loaded);
+      found.putAll(loaded);
+    }
+    List<StreamMetadata> result = new ArrayList<>(streamIds.size());
+    for (String id : streamIds) {
+      found.get(id).ifPresent(result::add);
+    }
+    return result;
+  }
+
+  @Subscribe
+  public void handleStreamsChanged(StreamsChangedEvent event) {
+    streams.invalidateAll(event.streamIds());
+  }
+
+  @Subscribe
+  public void handleStreamDeleted(StreamDeletedEvent event) {
+    streams.invalidate(event.streamId());
+  }
+
+  /**
+   * Stream fields used in Slack messages.
+   */
+  public static final class StreamMetadata {
+    private final String id;
+    private final String title;
+
+    public StreamMetadata(String id, String title) {
+      this.id = id;
+      this.title = title;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+  }
+}
@@ -1,13 +1,15 @@
 package com.kongz.graylog.plugins.slack;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
-/** 
- * An utility class provide function to replace dollar variable in text. 
+/**
+ * An utility class provide function to replace dollar variable in text.
  */
 public final class StringReplacement {
   private static final String DEFAULT_VALUE_DELIMITER = ":-";
-  
+
   private StringReplacement() {
     throw new IllegalStateException("Utility class");
   }
@@ -39,29 +41,38 @@ public final class StringReplacement {
   public static String replaceWithPrefix(
       String source, String prefix, Map<String, Object> valueMap) {
     if (source == null || valueMap == null) return source;
-    StringBuilder sb = new StringBuilder();
-    char[] strArray = source.toCharArray();
-    int i = 0;
-    while (i < strArray.length - 1) {
-      if (strArray[i] == '$' && strArray[i + 1] == '{') {
-        i = i + 2;
-        int begin = i;
-        while (strArray[i] != '}') ++i;
-        String[] exprs = findDefaultValue(source.substring(begin, i++));
-        Object value = valueMap.get(exprs[0]);
-        if (value == null && exprs.length > 1) value = exprs[1];
-        if (value == null || "".equals(value)) sb.append("");
-        else {
-          if (prefix != null) sb.append(prefix);
-          sb.append(value);
-        }
-      } else {
-        sb.append(strArray[i]);
-        ++i;
-      }
+    return compile(source).replaceWithPrefix(prefix, valueMap);
+  }
+
+  /**
+   * Parse the source text once so it can be applied to many value maps.
+   *
+   * <p>Variable format is ${expr[:-default]}. A <code>${</code> without closing <code>}</code> is
+   * kept as text.
+   *
+   * @param source the source text containing the variables to substitute, null returns null
+   * @return a parsed template
+   */
+  public static Template compile(String source) {
+    if (source == null) return null;
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<String> defaults = new ArrayList<>();
+    int from = 0;
+    int begin = source.indexOf("${");
+    while (begin >= 0) {
+      int end = source.indexOf('}', begin + 2);
+      if (end < 0) break;
+      literals.add(source.substring(from, begin));
+      String[] exprs = findDefaultValue(source.substring(begin + 2, end));
+      names.add(exprs[0]);
+      defaults.add(exprs.length > 1 ? exprs[1] : null);
+      from = end + 1;
+      begin = source.indexOf("${", from);
     }
-    if (i < strArray.length) sb.append(strArray[i]);
-    return sb.toString();
+    literals.add(source.substring(from));
+    return new Template(source, literals.toArray(new String[0]), names.toArray(new String[0]),
+        defaults.toArray(new String[0]));
   }
 
   private static String[] findDefaultValue(String exprString) {
@@ -69,6 +80,72 @@ public final class StringReplacement {
       return new String[] {
         exprString.substring(0, exprString.length() - DEFAULT_VALUE_DELIMITER.length()), ""
       };
-    return exprString.split(DEFAULT_VALUE_DELIMITER);
+    // Same as split(DEFAULT_VALUE_DELIMITER) but without compiling a regular expression
+    int delimiter = exprString.indexOf(DEFAULT_VALUE_DELIMITER);
+    if (delimiter < 0) return new String[] {exprString};
+    int begin = delimiter + DEFAULT_VALUE_DELIMITER.length();
+    int end = exprString.indexOf(DEFAULT_VALUE_DELIMITER, begin);
+    return new String[] {
+      exprString.substring(0, delimiter), exprString.substring(begin, end < 0 ? exprString.length() : end)
+    };
+  }
+
+  /**
+   * An immutable parsed text. Text between variables and variable names are kept as segments so
+   * applying the template only looks up values and appends them.
+   */
+  public static final class Template {
+    private final String source;
+    private final String[] literals;
+    private final String[] names;
+    private final String[] defaults;
+    private final int literalLength;
+
+    private Template(String source, String[] literals, String[] names, String[] defaults) {
+      this.source = source;
+      this.literals = literals;
+      this.names = names;
+      this.defaults = defaults;
+      int length = 0;
+      for (String literal : literals) length += literal.length();
+      this.literalLength = length;
+    }
+
+    /**
+     * @return true if the text contains any variable
+     */
+    public boolean hasVariables() {
+      return names.length > 0;
+    }
+
+    /**
+     * @see StringReplacement#replace(String, Map)
+     */
+    public String replace(Map<String, Object> valueMap) {
+      return replaceWithPrefix(null, valueMap);
+    }
+
+    /**
+     * @see StringReplacement#replaceWithPrefix(String, String, Map)
+     */
+    public String replaceWithPrefix(String prefix, Map<String, Object> valueMap) {
+      if (valueMap == null || names.length == 0) return source;
+      StringBuilder sb = new StringBuilder(literalLength + 16 * names.length);
+      for (int i = 0; i < names.length; i++) {
+        sb.append(literals[i]);
+        Object value = valueMap.get(names[i]);
+        if (value == null) value = defaults[i];
+        if (value != null && !"".equals(value)) {
+          if (prefix != null) sb.append(prefix);
+          sb.append(value);
+        }
+      }
+      return sb.append(literals[names.length]).toString();
+    }
+
+    @Override
+    public String toString() {
+      return source;
+    }
   }
 }
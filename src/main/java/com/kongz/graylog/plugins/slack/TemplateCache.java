@@ -0,0 +1,61 @@
+package com.kongz.graylog.plugins.slack;
+
+import java.util.Locale;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.floreysoft.jmte.Engine;
+import com.floreysoft.jmte.template.Template;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Parsed JMTE templates keyed by template text. {@link Engine#transform(String, Map)} parses the
+ * template on every call, so footer and field templates are parsed once here and reused for every
+ * backlog item. Least recently used templates are evicted when the cache is full.
+ *
+ * <p>A parsed JMTE template is synchronized while it transforms, so every thread gets its own copy
+ * and attachments rendered in parallel do not wait for each other.
+ */
+@Singleton
+public class TemplateCache {
+  private static final int MAX_SIZE = 1000;
+
+  private final LoadingCache<String, ThreadLocal<Template>> templates;
+
+  @Inject
+  public TemplateCache(Engine templateEngine) {
+    this(templateEngine, MAX_SIZE);
+  }
+
+  TemplateCache(Engine templateEngine, long maxSize) {
+    this.templates = CacheBuilder.newBuilder()
+      .maximumSize(maxSize)
+      .build(CacheLoader.from(template -> ThreadLocal.withInitial(() -> templateEngine.getTemplate(template))));
+  }
+
+  /**
+   * @param template JMTE template text
+   * @return a parsed template owned by the calling thread
+   */
+  public Template get(String template) {
+    return templates.getUnchecked(template).get();
+  }
+
+  /**
+   * Same as {@link Engine#transform(String, Map)} but with a parsed template.
+   *
+   * @param template JMTE template text
+   * @param model values of variables
+   * @return the transformed text
+   */
+  public String transform(String template, Map<String, Object> model) {
+    if (template == null) {
+      return null;
+    }
+    return get(template).transform(model, Locale.getDefault());
+  }
+}
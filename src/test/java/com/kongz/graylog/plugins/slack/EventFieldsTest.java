@@ -0,0 +1,109 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.event.EventDto;
+import org.graylog.events.notifications.EventNotificationConfig;
+import org.graylog.events.notifications.EventNotificationContext;
+import org.graylog.events.notifications.EventNotificationModelData;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorConfig;
+import org.graylog2.jackson.TypeReferences;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class EventFieldsTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+
+    private static EventNotificationContext context() {
+        return context(null);
+    }
+
+    private static EventNotificationContext context(EventDefinitionDto definition) {
+        DateTime now = new DateTime(2023, 6, 1, 10, 5, DateTimeZone.UTC);
+        EventDto event = EventDto.builder()
+                .id("01H1ZKXRZJ8XW0G2GQ2Y5V3M9F")
+                .eventDefinitionType("aggregation-v1")
+                .eventDefinitionId("5d4d33753d27460ad18e0c4d")
+                .eventTimestamp(now)
+                .processingTimestamp(now)
+                .timerangeStart(now.minusMinutes(5))
+                .timerangeEnd(now)
+                .streams(ImmutableSet.of("000000000000000000000001"))
+                .sourceStreams(ImmutableSet.of("000000000000000000000001"))
+                .message("Disk usage is high")
+                .source("server1.example.com")
+                .keyTuple(Collections.emptyList())
+                .key("")
+                .priority(2)
+                .alert(true)
+                .fields(ImmutableMap.of("disk", "/var"))
+                .groupByFields(Collections.emptyMap())
+                .build();
+        return EventNotificationContext.builder()
+                .notificationId("5d4d33753d27460ad18e0c4e")
+                .eventDefinition(definition)
+                .notificationConfig((EventNotificationConfig) Proxy.newProxyInstance(EventFieldsTest.class.getClassLoader(),
+                        new Class<?>[]{EventNotificationConfig.class}, (proxy, method, args) -> null))
+                .event(event)
+                .build();
+    }
+
+    @Test
+    public void testFieldsMatchConvertedModelData() {
+        EventNotificationContext ctx = context();
+        Map<String, Object> model = objectMapper.convertValue(EventNotificationModelData.of(ctx, Collections.emptyList()),
+                TypeReferences.MAP_STRING_OBJECT);
+        Map<String, Object> fields = EventFields.of(ctx, objectMapper);
+        assertEquals(7, fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            assertEquals(field.getKey(), model.get(field.getKey()), field.getValue());
+        }
+    }
+
+    @Test
+    public void testNullValuesOfDefinitionAreUnknown() {
+        EventDefinitionDto definition = EventDefinitionDto.builder()
+                .title("Disk usage")
+                .description("")
+                .priority(2)
+                .alert(true)
+                .config((EventProcessorConfig) Proxy.newProxyInstance(EventFieldsTest.class.getClassLoader(),
+                        new Class<?>[]{EventProcessorConfig.class},
+                        (proxy, method, args) -> "type".equals(method.getName()) ? "aggregation-v1" : null))
+                .keySpec(ImmutableList.of())
+                .notificationSettings(EventNotificationSettings.withGracePeriod(0))
+                .notifications(ImmutableList.of())
+                .storage(ImmutableList.of())
+                .fieldSpec(ImmutableMap.of())
+                .build();
+        Map<String, Object> fields = EventFields.of(context(definition), objectMapper);
+        assertEquals("<unknown>", fields.get("event_definition_id"));
+        assertEquals("aggregation-v1", fields.get("event_definition_type"));
+        assertEquals("Disk usage", fields.get("event_definition_title"));
+        assertEquals("<unknown>", fields.get("job_definition_id"));
+        assertNotNull(fields.get("event"));
+    }
+
+    @Test
+    public void testEventIsReadByJsonNames() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> event = (Map<String, Object>) EventFields.of(context(), objectMapper).get("event");
+        assertEquals("server1.example.com", event.get("source"));
+        assertEquals("5d4d33753d27460ad18e0c4d", event.get("event_definition_id"));
+        assertEquals("/var", ((Map<?, ?>) event.get("fields")).get("disk"));
+    }
+}
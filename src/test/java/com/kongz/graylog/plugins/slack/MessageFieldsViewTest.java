@@ -0,0 +1,123 @@
+package com.kongz.graylog.plugins.slack;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageFieldsViewTest {
+
+    private static Map<String, Object> eventFields() {
+        Map<String, Object> eventFields = new HashMap<>();
+        eventFields.put("source", "event-source");
+        eventFields.put("event_definition_title", "Disk usage");
+        eventFields.put("event_definition_description", null);
+        return eventFields;
+    }
+
+    private static Message message() {
+        Message message = new Message("Disk usage is high", "server1.example.com", new DateTime(DateTimeZone.UTC));
+        message.addField("disk", "/var");
+        return message;
+    }
+
+    @Test
+    public void testMessageFieldsShadowEventFields() {
+        MessageFieldsView view = new MessageFieldsView(eventFields(), message());
+        assertEquals("server1.example.com", view.get("source"));
+        assertEquals("/var", view.get("disk"));
+        assertEquals("Disk usage", view.get("event_definition_title"));
+        assertNull(view.get("missing"));
+        assertNull(view.get(1));
+        int sources = 0;
+        for (Map.Entry<String, Object> entry : view.entrySet()) {
+            if (entry.getKey().equals("source")) {
+                assertEquals("server1.example.com", entry.getValue());
+                sources++;
+            }
+        }
+        assertEquals(1, sources);
+    }
+
+    @Test
+    public void testNullEventValuesAreAllowed() {
+        MessageFieldsView view = new MessageFieldsView(eventFields(), message());
+        assertTrue(view.containsKey("event_definition_description"));
+        assertNull(view.get("event_definition_description"));
+        assertFalse(view.containsKey("missing"));
+        boolean found = false;
+        for (Map.Entry<String, Object> entry : view.entrySet()) {
+            if (entry.getKey().equals("event_definition_description")) {
+                assertNull(entry.getValue());
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void testSizeMatchesEntrySet() {
+        Message message = message();
+        MessageFieldsView view = new MessageFieldsView(eventFields(), message);
+        Set<String> keys = new HashSet<>();
+        for (Map.Entry<String, Object> entry : view.entrySet()) {
+            assertTrue(entry.getKey(), keys.add(entry.getKey()));
+        }
+        assertEquals(keys.size(), view.size());
+        assertEquals(keys.size(), view.entrySet().size());
+        assertEquals(message.getFieldCount() + 2, view.size());
+        Map<String, Object> copy = new HashMap<>(eventFields());
+        copy.putAll(message.getFields());
+        assertEquals(copy, view);
+    }
+
+    @Test
+    public void testViewIsImmutable() {
+        MessageFieldsView view = new MessageFieldsView(eventFields(), message());
+        try {
+            view.put("disk", "/tmp");
+            fail("put");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+        try {
+            view.remove("disk");
+            fail("remove");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+        try {
+            view.clear();
+            fail("clear");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+        Iterator<Map.Entry<String, Object>> entries = view.entrySet().iterator();
+        Map.Entry<String, Object> entry = entries.next();
+        try {
+            entry.setValue("changed");
+            fail("setValue");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+        try {
+            entries.remove();
+            fail("remove from iterator");
+        } catch (UnsupportedOperationException expected) {
+            // read-only
+        }
+        assertEquals("/var", view.get("disk"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.kongz.graylog.plugins.slack;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class NotifyUsersResolverTest {
+
+    private final List<Collection<String>> lookups = new ArrayList<>();
+
+    private final SlackClient client = new SlackClient(SlackDestination.create("", "xoxb-test", ""),
+            null, null, null, null, null, null) {
+        @Override
+        public Map<String, String> getSlackUsers(Collection<String> keys) {
+            lookups.add(new ArrayList<>(keys));
+            Map<String, String> ids = new LinkedHashMap<>();
+            for (String key : keys) {
+                ids.put(key, key.startsWith("j") ? "U2" : key.toUpperCase());
+            }
+            return ids;
+        }
+    };
+
+    @Test
+    public void testUsersOfAllMessagesAreResolvedOnce() {
+        List<Message> messages = Arrays.asList(message("siri"), message("bob"), message("siri"), message("bob"));
+        String result = new NotifyUsersResolver("${owner}").resolve(messages, client);
+        assertEquals("<@SIRI> <@BOB> ", result);
+        assertEquals(1, lookups.size());
+        assertEquals(Arrays.asList("siri", "bob"), lookups.get(0));
+    }
+
+    @Test
+    public void testMentionsAreDeduplicated() {
+        List<Message> messages = Arrays.asList(message("john"), message("jane"));
+        String result = new NotifyUsersResolver("@siri ${owner}").resolve(messages, client);
+        assertEquals("<@SIRI> <@U2> ", result);
+    }
+
+    @Test
+    public void testTextWithoutUsers() {
+        List<Message> messages = Arrays.asList(message(null), message(null));
+        String result = new NotifyUsersResolver("on-call ${owner:-}").resolve(messages, client);
+        assertEquals("on-call ", result);
+        assertEquals(0, lookups.size());
+    }
+
+    @Test
+    public void testEmptyBacklog() {
+        String result = new NotifyUsersResolver("${owner:-channel}").resolve(Collections.emptyList(), client);
+        assertEquals("channel", result);
+        assertEquals(0, lookups.size());
+    }
+
+    private static Message message(String owner) {
+        Message message = new Message("test", "source", new DateTime(DateTimeZone.UTC));
+        if (owner != null) {
+            message.addField("owner", owner);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,94 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackAcknowledgementsTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final SlackAcknowledgements acknowledgements = new SlackAcknowledgements(metricRegistry);
+
+    private static SlackActionPayload click(String callbackId, String attachmentId, String actionTs, String user) {
+        return new SlackActionPayload(null, callbackId, null, null, new SlackActionPayload.User(user, user),
+                actionTs, null, attachmentId, null, null, null);
+    }
+
+    @Test
+    public void testClicksOfAttachmentAreMerged() {
+        acknowledgements.record(click("m1", "1", "1.1", "U1"), true);
+        SlackAcknowledgements.Acknowledgement state = acknowledgements.record(click("m1", "1", "1.2", "U2"), false);
+        assertEquals(2, state.clicks().size());
+        assertEquals("U1", state.clicks().get(0).userId);
+        assertEquals("U2", state.clicks().get(1).userId);
+        assertFalse(state.isAcknowledged());
+        // other attachments and messages have their own clicks
+        assertEquals(1, acknowledgements.record(click("m1", "2", "1.3", "U1"), true).clicks().size());
+        assertTrue(acknowledgements.record(click("m2", "1", "1.4", "U1"), true).isAcknowledged());
+    }
+
+    @Test
+    public void testDuplicateDeliveryIsRecordedOnce() {
+        SlackAcknowledgements.Acknowledgement first = acknowledgements.record(click("m1", "1", "1.1", "U1"), true);
+        assertSame(first, acknowledgements.record(click("m1", "1", "1.1", "U1"), true));
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(SlackAcknowledgements.class, "duplicates")).getCount());
+    }
+
+    @Test
+    public void testLatestHasLaterClicks() {
+        SlackAcknowledgements.Acknowledgement first = acknowledgements.record(click("m1", "1", "1.1", "U1"), true);
+        acknowledgements.record(click("m1", "1", "1.2", "U2"), true);
+        assertEquals(1, first.clicks().size());
+        assertEquals(2, acknowledgements.latest(first).clicks().size());
+    }
+
+    @Test
+    public void testConcurrentClicksAreNotLost() throws Exception {
+        int threads = 8;
+        int clicks = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String user = "U" + t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < clicks; i++) {
+                        // every click is delivered twice
+                        acknowledgements.record(click("m1", "1", String.valueOf(i), user), true);
+                        acknowledgements.record(click("m1", "1", String.valueOf(i), user), true);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        SlackAcknowledgements.Acknowledgement state = acknowledgements.record(click("m1", "1", "0", "U0"), true);
+        assertEquals(threads * clicks, state.clicks().size());
+        Set<String> distinct = new HashSet<>();
+        for (SlackAcknowledgements.Click click : state.clicks()) {
+            distinct.add(click.userId + '/' + click.actionTs);
+        }
+        assertEquals(threads * clicks, distinct.size());
+    }
+}
@@ -0,0 +1,235 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlackActionResponderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final SlackJson JSON = new SlackJson();
+    private static final String RESPONSE_URL = "https://hooks.slack.com/actions/T0/1/x";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final List<URI> uris = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+    private volatile int status = 200;
+    private CountDownLatch posted;
+    private CountDownLatch entered;
+    private CountDownLatch release;
+    private SlackActionResponder responder;
+
+    @Before
+    public void setUp() {
+        posted = new CountDownLatch(1);
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(0);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (responder != null) {
+            responder.stop();
+        }
+    }
+
+    private SlackActionResponder responder(int queueSize, int workers) {
+        SlackClientFactory clientFactory = new SlackClientFactory(Duration.seconds(1), Duration.seconds(1),
+                Duration.seconds(1), false, Duration.hours(1), Duration.hours(1), 1.0, 10.0, 3,
+                Duration.seconds(1),
+                new SlackCircuitBreakers(5, 1000, metricRegistry, Ticker.systemTicker()), JSON, metricRegistry) {
+            @Override
+            public SlackTransport transport(String proxyAddress) throws SlackClient.SlackClientException {
+                return new SlackTransport(proxyAddress, false, java.time.Duration.ofSeconds(1),
+                        java.time.Duration.ofSeconds(1), java.time.Duration.ofSeconds(1)) {
+                    @Override
+                    public HttpResponse<String> post(URI uri, String token, SlackPayload jsonPayload) {
+                        entered.countDown();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        uris.add(uri);
+                        bodies.add(jsonPayload.toString());
+                        posted.countDown();
+                        return response(status);
+                    }
+                };
+            }
+        };
+        return new SlackActionResponder(true, queueSize, workers, "", clientFactory, metricRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpResponse<String> response(int status) {
+        return (HttpResponse<String>) Proxy.newProxyInstance(SlackActionResponderTest.class.getClassLoader(),
+                new Class<?>[]{HttpResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "statusCode":
+                            return status;
+                        case "headers":
+                            return HttpHeaders.of(Collections.emptyMap(), (name, value) -> true);
+                        case "body":
+                            return "expired_url";
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static SlackMessagePatcher patcher(String responseUrl) throws Exception {
+        return patcher(responseUrl, "m1");
+    }
+
+    private static SlackMessagePatcher patcher(String responseUrl, String callbackId) throws Exception {
+        return SlackMessagePatcher.parse(JSON, "{\"actions\":[{\"name\":\"acknowledge\",\"value\":\"true\"}],"
+                + "\"callback_id\":\"" + callbackId + "\","
+                + "\"attachment_id\":\"1\",\"response_url\":\"" + responseUrl + "\","
+                + "\"original_message\":{\"text\":\"Disk usage is high\",\"attachments\":["
+                + "{\"text\":\"line 1\",\"actions\":[{\"name\":\"acknowledge\"}]}]}}");
+    }
+
+    private static SlackMessage.Attachment reply() {
+        return reply("acked");
+    }
+
+    private static SlackMessage.Attachment reply(String text) {
+        return new SlackMessage.Attachment(text, text, null, "good", null, null, 1685613600L,
+                Lists.newArrayList(), null, null, null).setMarkdownIn("text");
+    }
+
+    private long count(String meter) throws InterruptedException {
+        String name = MetricRegistry.name(SlackActionResponder.class, meter);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metricRegistry.meter(name).getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return metricRegistry.meter(name).getCount();
+    }
+
+    @Test
+    public void testPatchedMessageIsPostedToResponseUrl() throws Exception {
+        responder = responder(10, 1);
+        assertTrue(responder.submit(patcher(RESPONSE_URL), SlackActionResponderTest::reply));
+        assertTrue(posted.await(5, TimeUnit.SECONDS));
+        assertEquals(URI.create(RESPONSE_URL), uris.get(0));
+        JsonNode message = MAPPER.readTree(bodies.get(0));
+        assertTrue(message.get("replace_original").asBoolean());
+        assertEquals("Disk usage is high", message.get("text").asText());
+        assertEquals(2, message.get("attachments").size());
+        assertFalse(message.get("attachments").get(0).has("actions"));
+        assertEquals("acked", message.get("attachments").get(1).get("text").asText());
+        assertEquals(1, count("sent"));
+    }
+
+    @Test
+    public void testRejectedAnswerIsNotRetried() throws Exception {
+        status = 404;
+        responder = responder(10, 1);
+        assertTrue(responder.submit(patcher(RESPONSE_URL), SlackActionResponderTest::reply));
+        assertEquals(1, count("failed"));
+        assertEquals(1, uris.size());
+    }
+
+    @Test
+    public void testOnlySlackIsCalledBack() throws Exception {
+        responder = responder(10, 1);
+        assertNull(SlackActionResponder.responseUrl(null));
+        assertNull(SlackActionResponder.responseUrl("http://hooks.slack.com/actions/T0/1/x"));
+        assertNull(SlackActionResponder.responseUrl("https://hooks.slack.com.example.org/actions"));
+        assertNull(SlackActionResponder.responseUrl("https://graylog.internal/api"));
+        assertFalse(responder.submit(patcher("https://graylog.internal/api"), SlackActionResponderTest::reply));
+        assertTrue(uris.isEmpty());
+    }
+
+    @Test
+    public void testFullQueueIsAnsweredByCaller() throws Exception {
+        release = new CountDownLatch(1);
+        responder = responder(1, 1);
+        // one message is being answered and one is queued
+        assertTrue(responder.submit(patcher(RESPONSE_URL, "m1"), SlackActionResponderTest::reply));
+        assertTrue(responder.submit(patcher(RESPONSE_URL, "m2"), SlackActionResponderTest::reply));
+        assertFalse(responder.submit(patcher(RESPONSE_URL, "m3"), SlackActionResponderTest::reply));
+        assertEquals(1, count("rejected"));
+    }
+
+    @Test
+    public void testMergedClickIsPostedWhenQueueIsFull() throws Exception {
+        release = new CountDownLatch(1);
+        responder = responder(1, 1);
+        assertTrue(responder.submit(patcher(RESPONSE_URL, "m1"), SlackActionResponderTest::reply));
+        assertTrue(responder.submit(patcher(RESPONSE_URL, "m2"), SlackActionResponderTest::reply));
+        // clicks on a third message race for the full queue, one which is accepted must be posted
+        String responseUrl = "https://hooks.slack.com/actions/T0/3/x";
+        List<Boolean> accepted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    accepted.add(responder.submit(patcher(responseUrl, "m3"), SlackActionResponderTest::reply));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(8, accepted.size());
+        if (accepted.contains(true)) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!uris.contains(URI.create(responseUrl)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(uris.contains(URI.create(responseUrl)));
+        }
+    }
+
+    @Test
+    public void testAnswersOfAttachmentArePostedInOrder() throws Exception {
+        release = new CountDownLatch(1);
+        posted = new CountDownLatch(2);
+        responder = responder(10, 2);
+        assertTrue(responder.submit(patcher(RESPONSE_URL), () -> reply("first")));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // both wait for the first answer, the second click is merged into the third
+        assertTrue(responder.submit(patcher(RESPONSE_URL), () -> reply("second")));
+        assertTrue(responder.submit(patcher(RESPONSE_URL), () -> reply("third")));
+        Thread.sleep(100);
+        assertEquals(0, uris.size());
+        release.countDown();
+        assertTrue(posted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(2, bodies.size());
+        assertEquals("first", MAPPER.readTree(bodies.get(0)).get("attachments").get(1).get("text").asText());
+        assertEquals("third", MAPPER.readTree(bodies.get(1)).get("attachments").get(1).get("text").asText());
+        assertEquals(1, count("merged"));
+    }
+}
@@ -0,0 +1,211 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationImpl;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackAggregatorTest {
+
+    private final SlackDestination destination = SlackDestination.create("https://hooks.slack.com/services/T/B/X", "", "");
+    private final List<SlackMessage> sent = Collections.synchronizedList(new ArrayList<>());
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<Notification> published = new ArrayList<>();
+    private SlackClient.SlackClientException failure;
+    private ScheduledExecutorService scheduler;
+    private SlackClient client;
+    private SlackAggregator aggregator;
+
+    @Before
+    public void setUp() {
+        // Runs flushes only when the test asks for it
+        scheduler = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                scheduled.add(command);
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+        client = new SlackClient(destination, null, null, null, null, null, null) {
+            @Override
+            public void send(SlackMessage message) throws SlackClientException {
+                if (failure != null) {
+                    throw failure;
+                }
+                sent.add(message);
+            }
+        };
+        SlackDeliveryService deliveryService = new SlackDeliveryService(false, 10, 1, false, "block",
+                Duration.seconds(1), null, null, new MetricRegistry());
+        SlackPayloadBudget payloadBudget = new SlackPayloadBudget(Size.kilobytes(512), 3000, new MetricRegistry());
+        SlackOutbox outbox = new SlackOutbox(false, null, Size.megabytes(1), Size.megabytes(1), Duration.seconds(1),
+                Duration.hours(1), null, null, null, null, null, scheduler, Clock.systemUTC(), new MetricRegistry());
+        NotificationService notificationService = (NotificationService) Proxy.newProxyInstance(
+                SlackAggregatorTest.class.getClassLoader(), new Class<?>[]{NotificationService.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "buildNow":
+                            return new NotificationImpl();
+                        case "publishIfFirst":
+                            published.add((Notification) args[0]);
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        NodeId nodeId = new NodeId() {
+            @Override
+            public String getNodeId() {
+                return "5ca1ab1e-0000-4000-a000-000000000000";
+            }
+        };
+        aggregator = new SlackAggregator(scheduler, deliveryService, payloadBudget, outbox, notificationService, nodeId,
+                new MetricRegistry());
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testSingleMessageIsSentAsIs() {
+        SlackMessage message = message("Disk full", 1);
+        aggregator.add("n/d/#alerts", 60, 5, "n", destination, client, message);
+        assertEquals(1, scheduled.size());
+        scheduled.get(0).run();
+        assertEquals(1, sent.size());
+        assertSame(message, sent.get(0));
+    }
+
+    @Test
+    public void testMessagesInWindowAreFolded() {
+        for (int i = 0; i < 4; i++) {
+            aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        }
+        aggregator.add("n/d/#ops", 60, 3, "n", destination, client, message("Disk full", 1));
+        assertEquals(2, scheduled.size());
+        scheduled.get(0).run();
+        assertEquals(1, sent.size());
+        SlackMessage digest = sent.get(0);
+        assertTrue(digest.text.startsWith("Disk full\n_4 events in 60s, 1 more item(s) not shown_"));
+        assertEquals(3, digest.attachments.size());
+        assertEquals("#alerts", digest.channel);
+    }
+
+    @Test
+    public void testMessageAfterFlushOpensNewWindow() {
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("first", 0));
+        scheduled.get(0).run();
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("second", 0));
+        assertEquals(2, scheduled.size());
+        scheduled.get(1).run();
+        assertEquals(2, sent.size());
+        assertEquals("second", sent.get(1).text);
+    }
+
+    @Test
+    public void testRateLimitedDigestIsRequeued() {
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        failure = new SlackClient.SlackRateLimitException("rate limited", 1500);
+        scheduled.get(0).run();
+        assertEquals(2, scheduled.size());
+        assertEquals(Long.valueOf(1500), delays.get(1));
+        failure = null;
+        scheduled.get(1).run();
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0).text.startsWith("Disk full\n_2 events in 60s_"));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void testDroppedDigestIsReported() {
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        failure = new SlackClient.SlackResponseException("Unexpected HTTP response status 404", 404);
+        scheduled.get(0).run();
+        // a rejected message is not sent again
+        assertEquals(1, scheduled.size());
+        assertTrue(sent.isEmpty());
+        assertEquals(1, published.size());
+        assertEquals("SlackNotification Failed", published.get(0).getDetail("title"));
+    }
+
+    @Test
+    public void testCircuitOpenDigestIsDroppedAfterAttempts() {
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        failure = new SlackClient.SlackCircuitOpenException("circuit open", 5000);
+        for (int i = 0; i < scheduled.size(); i++) {
+            scheduled.get(i).run();
+        }
+        assertEquals(5, scheduled.size());
+        assertEquals(Long.valueOf(5000), delays.get(4));
+        assertEquals(1, published.size());
+    }
+
+    @Test
+    public void testDigestIsAppendedToOutbox() throws Exception {
+        List<String> appended = new ArrayList<>();
+        SlackOutbox outbox = new SlackOutbox(false, null, Size.megabytes(1), Size.megabytes(1), Duration.seconds(1),
+                Duration.hours(1), null, null, null, null, null, scheduler, Clock.systemUTC(), new MetricRegistry()) {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public void append(String notificationId, SlackMessage message) {
+                appended.add(notificationId + ": " + message.text);
+            }
+        };
+        SlackAggregator aggregator = new SlackAggregator(scheduler, new SlackDeliveryService(false, 10, 1, false,
+                "block", Duration.seconds(1), null, null, new MetricRegistry()),
+                new SlackPayloadBudget(Size.kilobytes(512), 3000, new MetricRegistry()), outbox, null, null,
+                new MetricRegistry());
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        scheduled.get(0).run();
+        assertTrue(sent.isEmpty());
+        assertEquals(1, appended.size());
+        assertTrue(appended.get(0).startsWith("n: Disk full\n_2 events"));
+    }
+
+    @Test
+    public void testStopSendsOpenWindows() {
+        aggregator.add("n/d/#alerts", 60, 3, "n", destination, client, message("Disk full", 1));
+        aggregator.stop();
+        assertEquals(1, sent.size());
+        scheduled.get(0).run();
+        assertEquals(1, sent.size());
+    }
+
+    private static SlackMessage message(String text, int attachments) {
+        SlackMessage message = new SlackMessage(text, "#alerts", "graylog", null, false);
+        for (int i = 0; i < attachments; i++) {
+            message.addAttachment("backlog " + i, "#FF0000", null, null, null, "id" + i, null);
+        }
+        return message;
+    }
+}
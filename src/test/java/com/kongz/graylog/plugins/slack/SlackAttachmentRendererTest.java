@@ -0,0 +1,76 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackAttachmentRendererTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final Set<String> threads = ConcurrentHashMap.newKeySet();
+    private SlackAttachmentRenderer renderer;
+
+    @After
+    public void tearDown() {
+        renderer.stop();
+    }
+
+    private SlackMessage.Attachment attachment(Integer item) {
+        threads.add(Thread.currentThread().getName());
+        return new SlackMessage.Attachment("item " + item, "item " + item, null, "good", null, null, null,
+                new ArrayList<>(), null, null, null);
+    }
+
+    private static List<Integer> items(int count) {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    private static List<String> texts(List<SlackMessage.Attachment> attachments) {
+        return attachments.stream().map(a -> a.text).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testParallelRenderKeepsOrder() {
+        renderer = new SlackAttachmentRenderer(true, 4, 10, metricRegistry);
+        List<SlackMessage.Attachment> attachments = renderer.render(items(100), this::attachment);
+        assertEquals(IntStream.range(0, 100).mapToObj(i -> "item " + i).collect(Collectors.toList()),
+                texts(attachments));
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("slack-render-")));
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(SlackAttachmentRenderer.class, "parallel")).getCount());
+    }
+
+    @Test
+    public void testSmallBacklogIsRenderedByCaller() {
+        renderer = new SlackAttachmentRenderer(true, 4, 10, metricRegistry);
+        assertEquals(9, renderer.render(items(9), this::attachment).size());
+        assertEquals(Set.of(Thread.currentThread().getName()), threads);
+    }
+
+    @Test
+    public void testDisabled() {
+        renderer = new SlackAttachmentRenderer(false, 4, 10, metricRegistry);
+        assertEquals(100, renderer.render(items(100), this::attachment).size());
+        assertEquals(Set.of(Thread.currentThread().getName()), threads);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRenderErrorIsThrownToCaller() {
+        renderer = new SlackAttachmentRenderer(true, 4, 10, metricRegistry);
+        renderer.render(items(100), item -> {
+            if (item == 57) {
+                throw new IllegalStateException("broken item");
+            }
+            return attachment(item);
+        });
+    }
+}
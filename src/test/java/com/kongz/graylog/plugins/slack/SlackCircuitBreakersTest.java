@@ -0,0 +1,161 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackCircuitBreakersTest {
+
+    private long now = 0;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now;
+        }
+    };
+
+    private final SlackCircuitBreakers breakers = new SlackCircuitBreakers(3, 10000, new MetricRegistry(), ticker);
+
+    private final SlackDestination destination = SlackDestination.create("https://hooks.slack.com/services/T0/B0/X", "", "");
+
+    private static void expectOpen(SlackCircuitBreakers.Breaker breaker, long retryAfterMs) {
+        try {
+            breaker.acquire();
+            fail("Breaker should be open");
+        } catch (SlackClient.SlackCircuitOpenException e) {
+            assertEquals(retryAfterMs, e.getRetryAfterMs());
+        }
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() throws Exception {
+        SlackCircuitBreakers.Breaker breaker = breakers.get(destination);
+        breaker.acquire();
+        breaker.record(false);
+        breaker.acquire();
+        breaker.record(false);
+        // a success resets the count
+        breaker.acquire();
+        breaker.record(true);
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire();
+            breaker.record(false);
+        }
+        assertEquals(SlackCircuitBreakers.State.OPEN, breaker.state());
+        expectOpen(breaker, 10000);
+        now += TimeUnit.SECONDS.toNanos(4);
+        expectOpen(breaker, 6000);
+        assertEquals(6000, breaker.retryAfterMs());
+    }
+
+    @Test
+    public void testHalfOpenLetsOneTrialThrough() throws Exception {
+        SlackCircuitBreakers.Breaker breaker = breakers.get(destination);
+        for (int i = 0; i < 3; i++) {
+            breaker.record(false);
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+        // checking does not take the trial
+        breaker.check();
+        breaker.acquire();
+        assertEquals(SlackCircuitBreakers.State.HALF_OPEN, breaker.state());
+        expectOpen(breaker, 1000);
+        breaker.record(true);
+        assertEquals(SlackCircuitBreakers.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.failures());
+        breaker.acquire();
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws Exception {
+        SlackCircuitBreakers.Breaker breaker = breakers.get(destination);
+        for (int i = 0; i < 3; i++) {
+            breaker.record(false);
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+        breaker.acquire();
+        breaker.record(false);
+        assertEquals(SlackCircuitBreakers.State.OPEN, breaker.state());
+        expectOpen(breaker, 10000);
+    }
+
+    @Test
+    public void testInterruptedTrialIsReleased() throws Exception {
+        SlackCircuitBreakers.Breaker breaker = breakers.get(destination);
+        for (int i = 0; i < 3; i++) {
+            breaker.record(false);
+        }
+        now += TimeUnit.SECONDS.toNanos(10);
+        SlackClient client = client(breaker, new SlackClient.SlackClientException("Interrupted while waiting for Slack API",
+                new InterruptedException()));
+        try {
+            client.send(new SlackMessage("text", "#test", "graylog", null, false));
+            fail("Expected SlackClientException");
+        } catch (SlackClient.SlackClientException e) {
+            // expected
+        }
+        // neither closed nor opened again, the next request is the trial
+        assertEquals(SlackCircuitBreakers.State.HALF_OPEN, breaker.state());
+        assertEquals(3, breaker.failures());
+        breaker.acquire();
+    }
+
+    @Test
+    public void testTransportFailureIsRecorded() throws Exception {
+        SlackCircuitBreakers.Breaker breaker = breakers.get(destination);
+        SlackClient client = client(breaker, new SlackClient.SlackClientException("Could not POST to Slack API",
+                new java.net.ConnectException("Connection refused")));
+        try {
+            client.send(new SlackMessage("text", "#test", "graylog", null, false));
+            fail("Expected SlackClientException");
+        } catch (SlackClient.SlackClientException e) {
+            // expected
+        }
+        assertEquals(1, breaker.failures());
+    }
+
+    private SlackClient client(SlackCircuitBreakers.Breaker breaker, SlackClient.SlackClientException failure)
+            throws SlackClient.SlackClientException {
+        SlackTransport transport = new SlackTransport("", false, java.time.Duration.ofSeconds(1),
+                java.time.Duration.ofSeconds(1), java.time.Duration.ofSeconds(1)) {
+            @Override
+            public HttpResponse<String> post(URI uri, String token, SlackPayload jsonPayload)
+                    throws SlackClient.SlackClientException {
+                throw failure;
+            }
+        };
+        return new SlackClient(destination, transport, new SlackJson(), null, null, breaker, null);
+    }
+
+    @Test
+    public void testBreakerPerEndpoint() {
+        SlackDestination other = SlackDestination.create("https://hooks.slack.com/services/T0/B0/Y", "", "");
+        SlackDestination token = SlackDestination.create("https://hooks.slack.com/services/T0/B0/X", "xoxb-1", "");
+        assertSame(breakers.get(destination), breakers.get(SlackDestination.create(destination.webhookUrl(), "", "")));
+        assertTrue(breakers.get(destination) != breakers.get(other));
+        assertTrue(breakers.get(destination) != breakers.get(token));
+        assertFalse(breakers.get(token).name().contains("xoxb-1"));
+        assertEquals(3, breakers.breakers().size());
+    }
+
+    @Test
+    public void testEndpointFailure() {
+        assertTrue(SlackCircuitBreakers.isEndpointFailure(500));
+        assertTrue(SlackCircuitBreakers.isEndpointFailure(503));
+        assertTrue(SlackCircuitBreakers.isEndpointFailure(404));
+        assertTrue(SlackCircuitBreakers.isEndpointFailure(410));
+        assertFalse(SlackCircuitBreakers.isEndpointFailure(400));
+        assertFalse(SlackCircuitBreakers.isEndpointFailure(429));
+    }
+}
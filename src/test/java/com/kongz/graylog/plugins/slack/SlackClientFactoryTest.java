@@ -0,0 +1,78 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackClientFactoryTest {
+
+    private long nanos;
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final SlackClientFactory clientFactory = new SlackClientFactory(Duration.seconds(1), Duration.seconds(1),
+            Duration.seconds(1), false, Duration.hours(1), Duration.hours(1), 1.0, 10.0, 3, Duration.seconds(1),
+            new SlackCircuitBreakers(5, 1000, metricRegistry, ticker), new SlackJson(), metricRegistry, ticker);
+
+    @After
+    public void tearDown() {
+        clientFactory.stop();
+    }
+
+    private static SlackDestination destination(String token) {
+        return SlackDestination.create("", token, "");
+    }
+
+    @Test
+    public void testDirectoryOfUsedClientDoesNotExpire() throws Exception {
+        SlackClient client = clientFactory.get(destination("xoxb-1"));
+        SlackUserDirectory directory = client.userDirectory();
+        // the client is used every half hour for two days
+        for (int i = 0; i < 96; i++) {
+            nanos += TimeUnit.MINUTES.toNanos(30);
+            assertSame(client, clientFactory.get(destination("xoxb-1")));
+        }
+        assertSame(directory, client.userDirectory());
+        assertFalse(directory.isStopped());
+    }
+
+    @Test
+    public void testExpiredDirectoryIsNotKeptByClient() throws Exception {
+        SlackUserDirectory directory = clientFactory.get(destination("xoxb-1")).userDirectory();
+        nanos += TimeUnit.DAYS.toNanos(2);
+        // another token triggers the clean up of the caches
+        clientFactory.get(destination("xoxb-2"));
+        SlackClient client = clientFactory.get(destination("xoxb-1"));
+        assertTrue(directory.isStopped());
+        assertNotSame(directory, client.userDirectory());
+        assertFalse(client.userDirectory().isStopped());
+    }
+
+    @Test
+    public void testClientsOfEvictedDirectoryAreEvicted() throws Exception {
+        SlackClient client = clientFactory.get(destination("xoxb-0"));
+        SlackUserDirectory directory = client.userDirectory();
+        // more tokens than directories are kept
+        for (int i = 1; i <= 200 && !directory.isStopped(); i++) {
+            nanos += TimeUnit.SECONDS.toNanos(1);
+            clientFactory.get(destination("xoxb-" + i));
+        }
+        assertTrue(directory.isStopped());
+        SlackClient current = clientFactory.get(destination("xoxb-0"));
+        assertNotSame(client, current);
+        assertFalse(current.userDirectory().isStopped());
+    }
+}
@@ -0,0 +1,195 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import org.graylog.events.notifications.TemporaryEventNotificationException;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationImpl;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackDeliveryServiceTest {
+
+    private final SlackDestination destination = SlackDestination.create("https://hooks.slack.com/services/T/B/X", "", "");
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    private final List<Notification> published = Collections.synchronizedList(new ArrayList<>());
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private CountDownLatch started;
+    private CountDownLatch release;
+    private CountDownLatch done;
+    private SlackClient client;
+    private SlackDeliveryService service;
+
+    @Before
+    public void setUp() {
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        client = new SlackClient(destination, null, null, null, null, null, null) {
+            @Override
+            public void send(SlackMessage message) {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.add(message.text);
+                done.countDown();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void testMessagesOfDestinationAreSentInOrder() throws Exception {
+        service = service("block");
+        done = new CountDownLatch(3);
+        release.countDown();
+        for (String text : Arrays.asList("a", "b", "c")) {
+            service.submit(destination, client, message(text));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "c"), sent);
+    }
+
+    @Test
+    public void testFailWhenQueueIsFull() throws Exception {
+        service = service("fail");
+        done = new CountDownLatch(3);
+        service.submit(destination, client, message("a"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        service.submit(destination, client, message("b"));
+        service.submit(destination, client, message("c"));
+        try {
+            service.submit(destination, client, message("d"));
+            fail("Expected TemporaryEventNotificationException");
+        } catch (TemporaryEventNotificationException e) {
+            // expected
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "c"), sent);
+    }
+
+    @Test
+    public void testDropOldestWhenQueueIsFull() throws Exception {
+        service = service("drop_oldest");
+        done = new CountDownLatch(3);
+        service.submit(destination, client, message("a"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        service.submit(destination, client, message("b"));
+        service.submit(destination, client, message("c"));
+        service.submit(destination, client, message("d"));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "c", "d"), sent);
+    }
+
+    @Test
+    public void testIdleLaneIsRemoved() throws Exception {
+        service = service("block");
+        done = new CountDownLatch(1);
+        release.countDown();
+        service.submit(destination, client, message("a"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.laneCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, service.laneCount());
+
+        done = new CountDownLatch(1);
+        service.submit(destination, client, message("b"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void testFailureIsReported() throws Exception {
+        service = service("block");
+        CountDownLatch failed = new CountDownLatch(1);
+        SlackClient failing = new SlackClient(destination, null, null, null, null, null, null) {
+            @Override
+            public void send(SlackMessage message) throws SlackClientException {
+                failed.countDown();
+                throw new SlackResponseException("Slack API returned 503", 503);
+            }
+        };
+        service.submit(destination, failing, message("a"));
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (published.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, published.size());
+        assertEquals("SlackNotification Failed", published.get(0).getDetail("title"));
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(SlackDeliveryService.class, "failed")).getCount());
+    }
+
+    @Test
+    public void testSubmitAfterStopIsRejected() throws Exception {
+        service = service("block");
+        service.stop();
+        try {
+            service.submit(destination, client, message("a"));
+            fail("Expected TemporaryEventNotificationException");
+        } catch (TemporaryEventNotificationException e) {
+            // expected
+        }
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownBackPressure() {
+        service("wait");
+    }
+
+    private SlackDeliveryService service(String backPressure) {
+        NotificationService notificationService = (NotificationService) Proxy.newProxyInstance(
+                SlackDeliveryServiceTest.class.getClassLoader(), new Class<?>[]{NotificationService.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "buildNow":
+                            return new NotificationImpl();
+                        case "publishIfFirst":
+                            published.add((Notification) args[0]);
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        NodeId nodeId = new NodeId() {
+            @Override
+            public String getNodeId() {
+                return "5ca1ab1e-0000-4000-a000-000000000000";
+            }
+        };
+        return new SlackDeliveryService(true, 2, 1, false, backPressure, Duration.seconds(1), notificationService, nodeId,
+                metricRegistry);
+    }
+
+    private static SlackMessage message(String text) {
+        return new SlackMessage(text, "#test", "graylog", null, false);
+    }
+}
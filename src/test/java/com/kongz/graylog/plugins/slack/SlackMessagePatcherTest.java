@@ -0,0 +1,121 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackMessagePatcherTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final SlackJson JSON = new SlackJson();
+
+    private static String payload(String attachmentId) {
+        return "{\"type\":\"interactive_message\",\"actions\":[{\"name\":\"acknowledge\",\"type\":\"button\",\"value\":\"true\"}],"
+                + "\"callback_id\":\"5d4d\",\"user\":{\"id\":\"U1\",\"name\":\"siri\"},\"attachment_id\":\"" + attachmentId + "\","
+                + "\"original_message\":{\"type\":\"message\",\"text\":\"Disk usage is high\",\"bot_id\":\"B1\","
+                + "\"attachments\":["
+                + "{\"id\":1,\"text\":\"line 1\",\"color\":\"FF0000\",\"fields\":[{\"title\":\"source\",\"value\":\"server1\",\"short\":true}],"
+                + "\"actions\":[{\"id\":\"1\",\"name\":\"acknowledge\",\"text\":\"Acknowledge\",\"type\":\"button\",\"value\":\"true\"}]},"
+                + "{\"id\":2,\"text\":\"line 2 \\\"quoted\\\" \\u00e4\",\"color\":\"FF0000\","
+                + "\"actions\":[{\"id\":\"2\",\"name\":\"acknowledge\",\"text\":\"Acknowledge\",\"type\":\"button\",\"value\":\"true\"}]}"
+                + "]},\"response_url\":\"https://hooks.slack.com/actions/T0/1/x\"}";
+    }
+
+    private static SlackMessage.Attachment reply() {
+        return new SlackMessage.Attachment("acked", "acked", null, "good", null, null, 1685613600L,
+                Lists.newArrayList(), null, null, null).setMarkdownIn("text");
+    }
+
+    private static JsonNode patch(SlackMessagePatcher patcher) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        patcher.writeTo(out, reply());
+        return MAPPER.readTree(out.toByteArray());
+    }
+
+    @Test
+    public void testActionIsRead() throws Exception {
+        SlackMessagePatcher patcher = SlackMessagePatcher.parse(JSON, payload("1"));
+        assertEquals("U1", patcher.action().user.id);
+        assertEquals("acknowledge", patcher.action().actions.get(0).name);
+        assertEquals("https://hooks.slack.com/actions/T0/1/x", patcher.action().responseUrl);
+    }
+
+    @Test
+    public void testClickedAttachmentIsPatched() throws Exception {
+        JsonNode message = patch(SlackMessagePatcher.parse(JSON, payload("1")));
+        JsonNode attachments = message.get("attachments");
+        assertEquals(3, attachments.size());
+        assertFalse(attachments.get(0).has("actions"));
+        assertEquals("server1", attachments.get(0).get("fields").get(0).get("value").asText());
+        assertEquals("acked", attachments.get(1).get("text").asText());
+        assertEquals("text", attachments.get(1).get("mrkdwn_in").get(0).asText());
+        assertTrue(attachments.get(2).has("actions"));
+        // everything else is copied as it was sent
+        assertEquals("line 2 \"quoted\" \u00e4", attachments.get(2).get("text").asText());
+        assertEquals("Disk usage is high", message.get("text").asText());
+        assertEquals("B1", message.get("bot_id").asText());
+        assertFalse(message.has("original_message"));
+    }
+
+    @Test
+    public void testLastAttachmentIsPatched() throws Exception {
+        JsonNode attachments = patch(SlackMessagePatcher.parse(JSON, payload("2"))).get("attachments");
+        assertEquals(3, attachments.size());
+        assertTrue(attachments.get(0).has("actions"));
+        assertFalse(attachments.get(1).has("actions"));
+        assertEquals("acked", attachments.get(2).get("text").asText());
+    }
+
+    @Test
+    public void testActionsAreCutAnywhereInAttachment() throws Exception {
+        String[] attachments = {
+                "{\"actions\":[{\"name\":\"acknowledge\"}],\"text\":\"a\"}",
+                "{\"text\":\"a\", \"actions\" : [ ] }",
+                "{ \"actions\":null }",
+                "{\"text\":\"a,}\",\"actions\":[{\"name\":\"a\"}],\"color\":\"good\"}",
+                "{\"text\":\"a\"}"
+        };
+        for (String attachment : attachments) {
+            String payload = "{\"attachment_id\":\"1\",\"original_message\":{\"attachments\":[" + attachment + ",{\"text\":\"b\",\"actions\":[]}]}}";
+            JsonNode patched = patch(SlackMessagePatcher.parse(JSON, payload)).get("attachments");
+            assertEquals(attachment, 3, patched.size());
+            assertFalse(attachment, patched.get(0).has("actions"));
+            assertEquals(attachment, "acked", patched.get(1).get("text").asText());
+            assertTrue(attachment, patched.get(2).has("actions"));
+        }
+    }
+
+    @Test
+    public void testLargePayload() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 100000) {
+            text.append("line \\\"").append(text.length()).append("\\\" ");
+        }
+        String payload = "{\"attachment_id\":\"2\",\"original_message\":{\"attachments\":[{\"text\":\"" + text
+                + "\",\"actions\":[]},{\"text\":\"" + text + "\",\"actions\":[{\"name\":\"a\"}]}]}}";
+        JsonNode patched = patch(SlackMessagePatcher.parse(JSON, payload)).get("attachments");
+        assertEquals(3, patched.size());
+        assertTrue(patched.get(0).has("actions"));
+        assertFalse(patched.get(1).has("actions"));
+        assertEquals(MAPPER.readTree(payload).get("original_message").get("attachments").get(1).get("text"),
+                patched.get(1).get("text"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingAttachmentIsRejected() throws Exception {
+        SlackMessagePatcher.parse(JSON, payload("3"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBrokenPayloadIsRejected() throws Exception {
+        SlackMessagePatcher.parse(JSON, payload("1").substring(0, 200));
+    }
+}
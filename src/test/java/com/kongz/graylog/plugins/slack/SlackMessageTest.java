@@ -0,0 +1,62 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackMessageTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SlackJson slackJson = new SlackJson();
+
+    @Test
+    public void testJsonPayload() throws Exception {
+        SlackMessage message = new SlackMessage("Alert \"disk\" \u2713", "#alerts", "Graylog", ":warning:", true);
+        message.addAttachment("line 1", "#FF0000", "server1", null, 1685613600L, "id1", null)
+                .addField(new SlackMessage.AttachmentField("source", "server1", true));
+        JsonNode json = objectMapper.readTree(message.getJsonString(slackJson));
+        assertEquals("Alert \"disk\" \u2713", json.get("text").asText());
+        assertEquals("#alerts", json.get("channel").asText());
+        assertEquals(":warning:", json.get("icon_emoji").asText());
+        assertFalse(json.has("icon_url"));
+        assertTrue(json.get("link_names").asBoolean());
+        assertEquals("none", json.get("parse").asText());
+        JsonNode attachment = json.get("attachments").get(0);
+        assertEquals("line 1", attachment.get("text").asText());
+        assertEquals("id1", attachment.get("callback_id").asText());
+        assertEquals("server1", attachment.get("fields").get(0).get("value").asText());
+        assertFalse(attachment.has("actions"));
+    }
+
+    @Test
+    public void testNoAttachments() throws Exception {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        assertFalse(objectMapper.readTree(message.getJsonString(slackJson)).has("attachments"));
+    }
+
+    @Test
+    public void testPayloadChunks() throws Exception {
+        StringBuilder line = new StringBuilder();
+        while (line.length() < 40000) {
+            line.append("\u00e4\u00f6\u00fc line ");
+        }
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        message.addAttachment(line.toString(), "#FF0000", null, null, null);
+        SlackPayload payload = message.toPayload(slackJson);
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] chunk : payload.chunks()) {
+            joined.write(chunk);
+        }
+        assertEquals(payload.size(), joined.size());
+        assertArrayEquals(payload.toString().getBytes(StandardCharsets.UTF_8), joined.toByteArray());
+        assertEquals(line.toString(), objectMapper.readTree(payload.toString()).get("attachments").get(0).get("text").asText());
+    }
+}
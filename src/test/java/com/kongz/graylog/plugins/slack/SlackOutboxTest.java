@@ -0,0 +1,350 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.base.Ticker;
+import org.graylog.events.notifications.TemporaryEventNotificationException;
+import org.graylog2.notifications.Notification;
+import org.graylog2.notifications.NotificationImpl;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.system.NodeId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackOutboxTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String NOTIFICATION_ID = "5d4d33753d27460ad18e0c4e";
+    private static final String OTHER_NOTIFICATION_ID = "5d4d33753d27460ad18e0c4f";
+
+    private final SlackDestination destination = SlackDestination.create("https://hooks.slack.com/services/T0/B0/X", "", "");
+    private final SlackDestination otherDestination = SlackDestination.create("https://hooks.slack.com/services/T0/B1/Y", "", "");
+    private final SlackJson json = new SlackJson();
+    private final List<Notification> published = new ArrayList<>();
+    private long now = 1685613600000L;
+    private final Clock clock = new Clock() {
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now);
+        }
+    };
+    private final List<String> sent = new ArrayList<>();
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private SlackClientFactory clientFactory;
+    private SlackNotificationDestinations destinations;
+    private boolean deleted;
+    private SlackClient.SlackClientException failure;
+    // destination which fails, or null if all fail
+    private SlackDestination failing;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        // Runs the drainer only when the test asks for it
+        scheduler = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+                scheduled.add(command);
+                delays.add(unit.toMillis(delay));
+                return null;
+            }
+        };
+        clientFactory = new SlackClientFactory(Duration.seconds(1), Duration.seconds(1), Duration.seconds(1), false,
+                Duration.hours(1), Duration.hours(1), 1.0, 10.0, 3, Duration.seconds(1),
+                new SlackCircuitBreakers(5, 1000, new MetricRegistry(), Ticker.systemTicker()), json,
+                new MetricRegistry()) {
+            @Override
+            public SlackClient get(SlackDestination destination) {
+                return new SlackClient(destination, null, null, null, null, null, null) {
+                    @Override
+                    public void send(SlackMessage message) throws SlackClientException {
+                        if (failure != null && (failing == null || failing.equals(destination))) {
+                            throw failure;
+                        }
+                        sent.add(message.text);
+                    }
+                };
+            }
+        };
+        destinations = new SlackNotificationDestinations(null) {
+            @Override
+            public Optional<SlackDestination> get(String notificationId) {
+                if (deleted) {
+                    return Optional.empty();
+                }
+                if (NOTIFICATION_ID.equals(notificationId)) {
+                    return Optional.of(destination);
+                }
+                return OTHER_NOTIFICATION_ID.equals(notificationId) ? Optional.of(otherDestination) : Optional.empty();
+            }
+        };
+        metricRegistry = new MetricRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private SlackOutbox open(Size segmentSize, Size maxSize) {
+        NotificationService notificationService = (NotificationService) Proxy.newProxyInstance(
+                SlackOutboxTest.class.getClassLoader(), new Class<?>[]{NotificationService.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "buildNow":
+                            return new NotificationImpl();
+                        case "publishIfFirst":
+                            published.add((Notification) args[0]);
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        NodeId nodeId = new NodeId() {
+            @Override
+            public String getNodeId() {
+                return "5ca1ab1e-0000-4000-a000-000000000000";
+            }
+        };
+        return new SlackOutbox(true, folder.getRoot().toPath(), segmentSize, maxSize, Duration.seconds(30),
+                Duration.hours(6), clientFactory, destinations, json, notificationService, nodeId, scheduler,
+                clock, metricRegistry);
+    }
+
+    private SlackOutbox open() {
+        return open(Size.kilobytes(64), Size.megabytes(1));
+    }
+
+    private void runScheduled() {
+        while (!scheduled.isEmpty()) {
+            scheduled.remove(0).run();
+        }
+    }
+
+    private static SlackMessage message(String text) {
+        SlackMessage message = new SlackMessage(text, "#alerts", "Graylog", ":warning:", true);
+        message.addAttachment("line of " + text, "#FF0000", "server1", null, 1685613600L, "id", null)
+                .addField(new SlackMessage.AttachmentField("source", "server1", true));
+        return message;
+    }
+
+    private List<Path> segments() throws Exception {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("slack-outbox"))) {
+            return files.filter(f -> f.getFileName().toString().startsWith("segment-")).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void testMessagesAreSentInOrder() throws Exception {
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        outbox.append(NOTIFICATION_ID, message("second"));
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(Arrays.asList("first", "second"), sent);
+    }
+
+    @Test
+    public void testSentMessagesAreNotSentAfterRestart() throws Exception {
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        runScheduled();
+        outbox.stop();
+        outbox = open();
+        outbox.append(NOTIFICATION_ID, message("second"));
+        runScheduled();
+        assertEquals(Arrays.asList("first", "second"), sent);
+    }
+
+    @Test
+    public void testUnsentMessagesSurviveRestart() throws Exception {
+        failure = new SlackClient.SlackClientException("Could not open connection to Slack API");
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        outbox.append(NOTIFICATION_ID, message("second"));
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList(0L, 30000L), delays);
+        assertEquals(1, scheduled.size());
+        outbox.stop();
+
+        scheduled.clear();
+        failure = null;
+        open();
+        runScheduled();
+        assertEquals(Arrays.asList("first", "second"), sent);
+    }
+
+    @Test
+    public void testSecretsAreNotWritten() throws Exception {
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        outbox.stop();
+        String segment = new String(Files.readAllBytes(segments().get(0)), StandardCharsets.ISO_8859_1);
+        assertTrue(segment.contains(NOTIFICATION_ID));
+        assertFalse(segment.contains("hooks.slack.com"));
+    }
+
+    @Test
+    public void testMessageOfDeletedNotificationIsDropped() throws Exception {
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        deleted = true;
+        runScheduled();
+        deleted = false;
+        outbox.append(NOTIFICATION_ID, message("second"));
+        runScheduled();
+        assertEquals(Arrays.asList("second"), sent);
+    }
+
+    @Test
+    public void testFailingDestinationDoesNotBlockOthers() throws Exception {
+        failure = new SlackClient.SlackClientException("Could not open connection to Slack API");
+        failing = destination;
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        outbox.append(OTHER_NOTIFICATION_ID, message("other"));
+        outbox.append(NOTIFICATION_ID, message("second"));
+        scheduled.remove(0).run();
+        assertEquals(Arrays.asList("other"), sent);
+        assertEquals(Long.valueOf(30000), delays.get(1));
+        assertEquals(2, metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "parked")).getCount());
+
+        // new messages of other destinations are sent after the wait
+        outbox.append(OTHER_NOTIFICATION_ID, message("other again"));
+        failure = null;
+        now += 30000;
+        runScheduled();
+        assertEquals(Arrays.asList("other", "first", "second", "other again"), sent);
+    }
+
+    @Test
+    public void testExpiredMessageIsDroppedAndReported() throws Exception {
+        failure = new SlackClient.SlackClientException("Could not open connection to Slack API");
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        scheduled.remove(0).run();
+        now += TimeUnit.HOURS.toMillis(6);
+        runScheduled();
+        assertTrue(sent.isEmpty());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(SlackOutbox.class, "expired")).getCount());
+        assertEquals(1, published.size());
+        assertEquals("SlackNotification Failed", published.get(0).getDetail("title"));
+
+        failure = null;
+        outbox.append(NOTIFICATION_ID, message("second"));
+        runScheduled();
+        assertEquals(Arrays.asList("second"), sent);
+    }
+
+    @Test
+    public void testRejectedMessageIsDropped() throws Exception {
+        failure = new SlackClient.SlackResponseException("Unexpected HTTP response status 400", 400);
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("invalid"));
+        runScheduled();
+        failure = null;
+        outbox.append(NOTIFICATION_ID, message("valid"));
+        runScheduled();
+        assertEquals(Arrays.asList("valid"), sent);
+    }
+
+    @Test
+    public void testRateLimitWaitsForRetryAfter() throws Exception {
+        failure = new SlackClient.SlackRateLimitException("rate limited", 1500);
+        SlackOutbox outbox = open();
+        outbox.append(NOTIFICATION_ID, message("first"));
+        scheduled.remove(0).run();
+        assertEquals(Long.valueOf(1500), delays.get(1));
+        failure = null;
+        now += 1500;
+        runScheduled();
+        assertEquals(Arrays.asList("first"), sent);
+    }
+
+    @Test
+    public void testSentSegmentsAreDeleted() throws Exception {
+        SlackOutbox outbox = open(Size.kilobytes(1), Size.megabytes(1));
+        for (int i = 0; i < 10; i++) {
+            outbox.append(NOTIFICATION_ID, message("message " + i));
+        }
+        assertTrue(segments().size() > 1);
+        runScheduled();
+        assertEquals(10, sent.size());
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    public void testCorruptedSegmentIsSkipped() throws Exception {
+        SlackOutbox outbox = open(Size.kilobytes(1), Size.megabytes(1));
+        for (int i = 0; i < 6; i++) {
+            outbox.append(NOTIFICATION_ID, message("message " + i));
+        }
+        outbox.stop();
+        scheduled.clear();
+        List<Path> segments = segments();
+        assertTrue(segments.size() >= 3);
+        // flip a byte in the first record of the second segment
+        try (RandomAccessFile file = new RandomAccessFile(segments.get(1).toFile(), "rw")) {
+            file.seek(20);
+            int value = file.read();
+            file.seek(20);
+            file.write(value ^ 0xff);
+        }
+        open(Size.kilobytes(1), Size.megabytes(1));
+        runScheduled();
+        assertTrue(sent.contains("message 0"));
+        assertTrue(sent.contains("message 5"));
+        assertTrue(sent.size() < 6);
+    }
+
+    @Test(expected = TemporaryEventNotificationException.class)
+    public void testFullOutboxRejectsMessages() throws Exception {
+        SlackOutbox outbox = open(Size.kilobytes(1), Size.kilobytes(2));
+        for (int i = 0; i < 20; i++) {
+            outbox.append(NOTIFICATION_ID, message("message " + i));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joschi.jadconfig.util.Size;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackPayloadBudgetTest {
+
+    private final SlackJson json = new SlackJson();
+    private final SlackPayloadBudget budget = new SlackPayloadBudget(Size.kilobytes(64), 100, new MetricRegistry());
+
+    private static String repeat(String text, int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length) {
+            sb.append(text);
+        }
+        return sb.substring(0, length);
+    }
+
+    @Test
+    public void testEstimateMatchesEncodedSize() throws Exception {
+        String text = "line \"1\"\n\\ \u00e4\u20ac\ud83d\ude00 \u0001";
+        assertEquals(new ObjectMapper().writeValueAsBytes(text).length, SlackPayloadBudget.estimate(text));
+    }
+
+    @Test
+    public void testLongTextIsTruncated() {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        message.addAttachment(repeat("abc ", 500), "#FF0000", null, null, null)
+                .addField(new SlackMessage.AttachmentField("source", repeat("x", 300), true));
+        budget.apply(message);
+        SlackMessage.Attachment attachment = message.attachments.get(0);
+        assertTrue(attachment.text.startsWith(repeat("abc ", 100)));
+        assertTrue(attachment.text.endsWith("\n_\u2026 400 more characters_"));
+        assertEquals(attachment.text, attachment.fallback);
+        assertTrue(attachment.fields.get(0).value.endsWith("\n_\u2026 200 more characters_"));
+    }
+
+    @Test
+    public void testPreformattedTextIsClosed() {
+        assertEquals("```" + repeat("a", 94) + "```\n_\u2026 106 more characters_",
+                budget.truncate("```" + repeat("a", 200) + "```", 100));
+    }
+
+    @Test
+    public void testSurrogatePairIsNotSplit() {
+        String text = repeat("a", 99) + "\ud83d\ude00" + repeat("b", 10);
+        assertTrue(budget.truncate(text, 100).startsWith(repeat("a", 99) + "\n"));
+    }
+
+    @Test
+    public void testFieldsAreCapped() {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        SlackMessage.Attachment attachment = message.addAttachment("text", "#FF0000", null, null, null);
+        for (int i = 0; i < 15; i++) {
+            attachment.addField(new SlackMessage.AttachmentField("f" + i, "v", true));
+        }
+        budget.apply(message);
+        assertEquals(SlackPayloadBudget.MAX_FIELDS, message.attachments.get(0).fields.size());
+    }
+
+    @Test
+    public void testAttachmentsAreCapped() {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        for (int i = 0; i < 150; i++) {
+            message.addAttachment("item " + i, "#FF0000", null, null, null);
+        }
+        budget.apply(message);
+        assertEquals(SlackPayloadBudget.MAX_ATTACHMENTS, message.attachments.size());
+        assertEquals("item 98", message.attachments.get(98).text);
+        assertEquals("51 more messages not shown", message.attachments.get(99).text);
+    }
+
+    @Test
+    public void testAttachmentsOverSizeAreSummarized() {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        for (int i = 0; i < 80; i++) {
+            message.addAttachment(repeat("\u20ac", 200), "#FF0000", null, null, null);
+        }
+        long estimate = budget.apply(message);
+        int encoded = message.getJsonString(json).getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(estimate <= 64 * 1024);
+        assertTrue(encoded <= estimate);
+        SlackMessage.Attachment summary = message.attachments.get(message.attachments.size() - 1);
+        assertEquals((81 - message.attachments.size()) + " more messages not shown", summary.text);
+    }
+
+    @Test
+    public void testSmallMessageIsUnchanged() {
+        SlackMessage message = new SlackMessage("Alert", "#alerts", "Graylog", null, false);
+        message.addAttachment("line 1", "#FF0000", "footer", null, 1L);
+        String before = message.getJsonString(json);
+        budget.apply(message);
+        assertEquals(before, message.getJsonString(json));
+    }
+}
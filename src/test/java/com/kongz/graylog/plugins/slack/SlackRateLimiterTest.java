@@ -0,0 +1,72 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SlackRateLimiterTest {
+
+    private long now = 0;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now;
+        }
+    };
+
+    @Test
+    public void testBurstThenOnePerSecond() throws Exception {
+        SlackRateLimiter limiter = new SlackRateLimiter(1.0, 100.0, 2, 10000, ticker);
+        assertEquals(0, limiter.reserve("xoxb", "#alerts"));
+        assertEquals(0, limiter.reserve("xoxb", "#alerts"));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.reserve("xoxb", "#alerts"));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), limiter.reserve("xoxb", "#alerts"));
+        // other channels have their own bucket
+        assertEquals(0, limiter.reserve("xoxb", "#ops"));
+        now += TimeUnit.SECONDS.toNanos(3);
+        assertEquals(0, limiter.reserve("xoxb", "#alerts"));
+    }
+
+    @Test
+    public void testTokenBucketIsShared() throws Exception {
+        SlackRateLimiter limiter = new SlackRateLimiter(10.0, 1.0, 1, 10000, ticker);
+        assertEquals(0, limiter.reserve("xoxb", "#alerts"));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.reserve("xoxb", "#ops"));
+        assertEquals(0, limiter.reserve("xoxb-other", "#ops"));
+    }
+
+    @Test
+    public void testWaitLongerThanMaximumFails() throws Exception {
+        SlackRateLimiter limiter = new SlackRateLimiter(1.0, 100.0, 1, 1500, ticker);
+        limiter.reserve("xoxb", "#alerts");
+        limiter.reserve("xoxb", "#alerts");
+        try {
+            limiter.reserve("xoxb", "#alerts");
+            fail("Expected SlackRateLimitException");
+        } catch (SlackClient.SlackRateLimitException e) {
+            assertEquals(2000, e.getRetryAfterMs());
+        }
+    }
+
+    @Test
+    public void testPauseAfterRetryAfter() throws Exception {
+        SlackRateLimiter limiter = new SlackRateLimiter(1.0, 100.0, 3, 60000, ticker);
+        limiter.pause("xoxb", "#alerts", 30000);
+        assertEquals(TimeUnit.SECONDS.toNanos(30), limiter.reserve("xoxb", "#alerts"));
+        assertEquals(TimeUnit.SECONDS.toNanos(31), limiter.reserve("xoxb", "#alerts"));
+        now += TimeUnit.SECONDS.toNanos(40);
+        assertEquals(0, limiter.reserve("xoxb", "#alerts"));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(30000, SlackClient.parseRetryAfter("30"));
+        assertEquals(1000, SlackClient.parseRetryAfter(null));
+        assertEquals(1000, SlackClient.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+}
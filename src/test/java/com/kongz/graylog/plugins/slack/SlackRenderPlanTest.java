@@ -0,0 +1,75 @@
+package com.kongz.graylog.plugins.slack;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackRenderPlanTest {
+
+    private static SlackNotificationConfig.Builder config() {
+        return SlackNotificationConfig.builder()
+                .webhookUrl("https://hooks.slack.com/services/T0/B0/X")
+                .channel("#alerts")
+                .userName("Graylog")
+                .color("#FF0000")
+                .backlogItems(5)
+                .notifyUsers("")
+                .shortMode(true)
+                .linkNames(true)
+                .messageIcon(":warning:")
+                .footerText("${source}")
+                .footerIconUrl("")
+                .footerTsField("timestamp")
+                .graylogUrl("http://graylog.example.com")
+                .proxyAddress("")
+                .fields(" source, ,level ")
+                .acknowledge(false)
+                .preformat(false)
+                .token("");
+    }
+
+    @Test
+    public void testSettingsAreInterpreted() {
+        SlackRenderPlan plan = new SlackRenderPlan(config().build());
+        assertEquals(Arrays.asList("source", "level"), plan.customFields());
+        assertEquals("http://graylog.example.com/messages/", plan.messageLinkPrefix());
+        assertEquals("http://graylog.example.com/streams/", plan.streamLinkPrefix());
+        assertTrue(plan.isReservedTimestamp());
+        assertNull(plan.actions());
+        assertNull(plan.notifyUsers());
+        SlackMessage message = plan.newMessage("Alert");
+        assertEquals(":warning:", message.iconEmoji);
+        assertNull(message.iconUrl);
+    }
+
+    @Test
+    public void testEmptySettings() {
+        SlackRenderPlan plan = new SlackRenderPlan(config()
+                .graylogUrl("http://graylog.example.com/")
+                .messageIcon("https://example.com/icon.png")
+                .footerText("")
+                .fields("")
+                .acknowledge(true)
+                .notifyUsers("@${user}")
+                .build());
+        assertEquals("http://graylog.example.com/messages/", plan.messageLinkPrefix());
+        assertEquals(Collections.emptyList(), plan.customFields());
+        assertNull(plan.footerText());
+        assertEquals(2, plan.actions().size());
+        assertNotNull(plan.notifyUsers());
+        assertEquals("https://example.com/icon.png", plan.newMessage("Alert").iconUrl);
+    }
+
+    @Test
+    public void testPlanIsSharedByEqualConfigs() {
+        RenderPlanCache cache = new RenderPlanCache();
+        assertSame(cache.get(config().build()), cache.get(config().build()));
+    }
+}
@@ -0,0 +1,178 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlackUserDirectoryTest {
+
+    private List<SlackMember> members;
+    private int calls;
+    private SlackClient client;
+    private SlackUserDirectory directory;
+    private MetricRegistry metricRegistry;
+
+    @Before
+    public void setUp() {
+        members = new ArrayList<>(Arrays.asList(
+                member("U1", "siri", "Siri C", "siri@example.com", 100),
+                member("U2", "john", "John Doe", "John@Example.com", 100)));
+        calls = 0;
+        client = new SlackClient(SlackDestination.create("", "xoxb-test", ""),
+                null, null, null, null, null, null) {
+            @Override
+            public SlackUserList listUsers(int limit, String cursor) {
+                calls++;
+                SlackUserList list = new SlackUserList();
+                list.members = new ArrayList<>(members);
+                list.responseMetadata = new SlackResponseMetadata();
+                list.responseMetadata.nextCursor = "";
+                return list;
+            }
+        };
+        metricRegistry = new MetricRegistry();
+        directory = new SlackUserDirectory(client, null, 60000, 60000, metricRegistry);
+    }
+
+    @Test
+    public void testLookupByNames() throws Exception {
+        assertEquals("U1", directory.lookup("siri"));
+        assertEquals("U1", directory.lookup("Siri C"));
+        assertEquals("U2", directory.lookup("john@example.com"));
+        assertEquals(1, calls);
+    }
+
+    @Test
+    public void testMissIsCached() throws Exception {
+        assertNull(directory.lookup("nobody"));
+        assertNull(directory.lookup("nobody"));
+        assertEquals(1, calls);
+    }
+
+    @Test
+    public void testHitsAndMissesAreCounted() throws Exception {
+        directory.lookup("siri");
+        directory.lookup("john");
+        directory.lookupAll(Arrays.asList("siri", "nobody"));
+        directory.lookup("nobody");
+        assertEquals(1, metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "misses")).getCount());
+        assertEquals(4, metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "hits")).getCount());
+    }
+
+    @Test
+    public void testBotIsNotIndexed() throws Exception {
+        SlackMember bot = member("B1", "bot", "Bot", null, 100);
+        bot.isBot = true;
+        members.add(bot);
+        assertNull(directory.lookup("bot"));
+    }
+
+    @Test
+    public void testReloadAppliesUpdatedMembers() throws Exception {
+        assertEquals("U1", directory.lookup("siri"));
+        members.set(0, member("U1", "siri.c", "Siri C", "siri@example.com", 200));
+        members.add(member("U3", "jane", "Jane Doe", null, 150));
+        directory.load();
+        assertNull(directory.lookup("siri"));
+        assertEquals("U1", directory.lookup("siri.c"));
+        assertEquals("U3", directory.lookup("jane"));
+        assertEquals("U2", directory.lookup("john"));
+    }
+
+    @Test
+    public void testReloadRemovesDeletedMembers() throws Exception {
+        assertEquals("U2", directory.lookup("john"));
+        SlackMember deleted = member("U2", "john", "John Doe", null, 200);
+        deleted.deleted = true;
+        members.set(1, deleted);
+        directory.load();
+        assertNull(directory.lookup("john"));
+    }
+
+    @Test
+    public void testNothingIsLoadedBeforeFirstLookup() throws Exception {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        try {
+            SlackUserDirectory lazy = new SlackUserDirectory(client, scheduler, 60000, 60000, metricRegistry);
+            assertEquals(0, calls);
+            assertTrue(scheduler.getQueue().isEmpty());
+            assertEquals("U1", lazy.lookup("siri"));
+            assertEquals(1, calls);
+            // reloads start with the first lookup
+            assertEquals(1, scheduler.getQueue().size());
+            lazy.stop();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadsAreCoalesced() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        SlackClient slowClient = new SlackClient(SlackDestination.create("", "xoxb-test", ""),
+                null, null, null, null, null, null) {
+            @Override
+            public SlackUserList listUsers(int limit, String cursor) {
+                loads.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                SlackUserList list = new SlackUserList();
+                list.members = new ArrayList<>(members);
+                return list;
+            }
+        };
+        MetricRegistry metricRegistry = new MetricRegistry();
+        SlackUserDirectory slowDirectory = new SlackUserDirectory(slowClient, null, 60000, 60000, metricRegistry);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> slowDirectory.lookup("siri")));
+            }
+            long waiters;
+            do {
+                Thread.sleep(10);
+                waiters = metricRegistry.counter(MetricRegistry.name(SlackUserDirectory.class, "coalescedWaiters")).getCount();
+            } while (waiters < 3);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("U1", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SlackMember member(String id, String displayName, String realName, String email, int updated) {
+        SlackMember member = new SlackMember();
+        member.id = id;
+        member.isBot = false;
+        member.deleted = false;
+        member.updated = updated;
+        member.profile = new SlackProfile();
+        member.profile.displayName = displayName;
+        member.profile.realName = realName;
+        member.profile.email = email;
+        return member;
+    }
+}
@@ -0,0 +1,110 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamService;
+import org.graylog2.streams.events.StreamDeletedEvent;
+import org.graylog2.streams.events.StreamsChangedEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamMetadataCacheTest {
+
+    private final Map<String, String> titles = new HashMap<>();
+    private final List<Collection<String>> queries = new ArrayList<>();
+    private EventBus eventBus;
+    private StreamMetadataCache cache;
+
+    @Before
+    public void setUp() {
+        titles.put("s1", "All messages");
+        titles.put("s2", "Errors");
+        StreamService streamService = (StreamService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{StreamService.class}, (proxy, method, args) -> {
+                    if (!"loadByIds".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    @SuppressWarnings("unchecked")
+                    Collection<String> ids = (Collection<String>) args[0];
+                    queries.add(new ArrayList<>(ids));
+                    Set<Stream> streams = new HashSet<>();
+                    for (String id : ids) {
+                        if (titles.containsKey(id)) {
+                            streams.add(stream(id, titles.get(id)));
+                        }
+                    }
+                    return streams;
+                });
+        eventBus = new EventBus();
+        cache = new StreamMetadataCache(streamService, eventBus, Duration.minutes(1), new MetricRegistry());
+    }
+
+    @Test
+    public void testStreamsAreLoadedOnce() {
+        assertEquals(Arrays.asList("Errors", "All messages"), titles(cache.get(Arrays.asList("s2", "s1"))));
+        assertEquals(Arrays.asList("All messages"), titles(cache.get(Arrays.asList("s1"))));
+        assertEquals(1, queries.size());
+    }
+
+    @Test
+    public void testMissingStreamIsRemembered() {
+        assertEquals(Arrays.asList("All messages"), titles(cache.get(Arrays.asList("s1", "s3"))));
+        assertEquals(Arrays.asList("All messages"), titles(cache.get(Arrays.asList("s1", "s3"))));
+        assertEquals(1, queries.size());
+    }
+
+    @Test
+    public void testChangedStreamIsReloaded() {
+        cache.get(Arrays.asList("s1", "s2"));
+        titles.put("s1", "Everything");
+        eventBus.post(StreamsChangedEvent.create(ImmutableSet.of("s1")));
+        assertEquals(Arrays.asList("Everything", "Errors"), titles(cache.get(Arrays.asList("s1", "s2"))));
+        assertEquals(Arrays.asList("s1"), queries.get(1));
+    }
+
+    @Test
+    public void testDeletedStreamIsDropped() {
+        cache.get(Arrays.asList("s1", "s2"));
+        titles.remove("s2");
+        eventBus.post(StreamDeletedEvent.create("s2"));
+        assertEquals(Arrays.asList("All messages"), titles(cache.get(Arrays.asList("s1", "s2"))));
+    }
+
+    private static List<String> titles(List<StreamMetadataCache.StreamMetadata> streams) {
+        return streams.stream().map(StreamMetadataCache.StreamMetadata::getTitle).collect(Collectors.toList());
+    }
+
+    private static Stream stream(String id, String title) {
+        return (Stream) Proxy.newProxyInstance(StreamMetadataCacheTest.class.getClassLoader(),
+                new Class<?>[]{Stream.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getTitle":
+                            return title;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -6,6 +6,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertEquals;
 
@@ -104,4 +105,40 @@ public class StringReplacementTest {
         assertEquals("", output);
     }
 
+    @Test
+    public void testUnclosedExpr() {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("user", "siri");
+        final String input = "${user} ${source";
+        String output = StringReplacement.replace(input, fields);
+        assertEquals("siri ${source", output);
+    }
+
+    @Test
+    public void testDollarAtEnd() {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        final String input = "cost $";
+        String output = StringReplacement.replace(input, fields);
+        assertEquals("cost $", output);
+    }
+
+    @Test
+    public void testCompiledTemplateReuse() {
+        StringReplacement.Template template = StringReplacement.compile("@${user:-john} on ${source}");
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put("source", "server1");
+        assertEquals("@john on server1", template.replace(fields));
+        fields.put("user", "siri");
+        fields.put("source", "server2");
+        assertEquals("@siri on server2", template.replace(fields));
+        assertEquals("@@siri on @server2", template.replaceWithPrefix("@", fields));
+    }
+
+    @Test
+    public void testCompiledTemplateWithoutExpr() {
+        StringReplacement.Template template = StringReplacement.compile("@siri");
+        assertFalse(template.hasVariables());
+        assertEquals("@siri", template.replace(Collections.emptyMap()));
+    }
+
 }
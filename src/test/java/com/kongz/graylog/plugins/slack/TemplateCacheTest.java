@@ -0,0 +1,105 @@
+package com.kongz.graylog.plugins.slack;
+
+import com.floreysoft.jmte.Engine;
+import com.floreysoft.jmte.template.Template;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TemplateCacheTest {
+
+    private static final String[] TEMPLATES = {
+            "${source}",
+            "Alert ${event_definition_title} on ${source}",
+            "${if priority}Priority ${priority}${else}No priority${end}",
+            "${foreach streams stream}${stream}, ${end}",
+            "plain text",
+            "${missing}"
+    };
+
+    private static Map<String, Object> model(int i) {
+        Map<String, Object> model = new HashMap<>();
+        model.put("source", "server" + i);
+        model.put("event_definition_title", "Disk usage " + i);
+        model.put("priority", i % 2 == 0 ? null : i);
+        List<String> streams = new ArrayList<>();
+        for (int s = 0; s <= i % 3; s++) {
+            streams.add("stream" + s);
+        }
+        model.put("streams", streams);
+        return model;
+    }
+
+    @Test
+    public void testOutputMatchesEngine() {
+        Engine engine = new Engine();
+        TemplateCache cache = new TemplateCache(engine);
+        for (int i = 0; i < 4; i++) {
+            for (String template : TEMPLATES) {
+                assertEquals(template, engine.transform(template, model(i)), cache.transform(template, model(i)));
+            }
+        }
+        assertNull(cache.transform(null, model(0)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvictedAtLimit() {
+        TemplateCache cache = new TemplateCache(new Engine(), 2);
+        Template first = cache.get(TEMPLATES[0]);
+        Template second = cache.get(TEMPLATES[1]);
+        assertSame(first, cache.get(TEMPLATES[0]));
+        // the second template is the least recently used one when a third is added
+        cache.get(TEMPLATES[2]);
+        assertSame(first, cache.get(TEMPLATES[0]));
+        assertNotSame(second, cache.get(TEMPLATES[1]));
+    }
+
+    @Test
+    public void testConcurrentTransformsMatchEngine() throws Exception {
+        Engine engine = new Engine();
+        TemplateCache cache = new TemplateCache(engine);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 500; i++) {
+                        String template = TEMPLATES[(i + offset) % TEMPLATES.length];
+                        Map<String, Object> model = model(i + offset);
+                        assertEquals(engine.transform(template, model), cache.transform(template, model));
+                    }
+                    // every thread renders with its own parsed template
+                    return cache.get(TEMPLATES[0]);
+                }));
+            }
+            start.countDown();
+            List<Object> parsed = new ArrayList<>();
+            for (Future<?> future : futures) {
+                Object template = future.get(10, TimeUnit.SECONDS);
+                for (Object other : parsed) {
+                    assertNotSame(other, template);
+                }
+                parsed.add(template);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
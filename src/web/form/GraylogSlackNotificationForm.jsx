@@ -36,7 +36,9 @@ class GraylogSlackNotificationForm extends React.Component {
     fields: "",
     acknowledge: false,
     preformat: false,
-    token: ""
+    token: "",
+    aggregationWindow: 0,
+    aggregationTopItems: 5
   };
 
   propagateChange = (key, value) => {
@@ -312,6 +314,40 @@ class GraylogSlackNotificationForm extends React.Component {
           checked={config.preformat || ""}
           onChange={this.handleChange}
         />
+        <Input
+          id="notification-aggregationWindow"
+          name="aggregationWindow"
+          label="Aggregation Window"
+          type="number"
+          bsStyle={validation.errors.aggregationWindow ? "error" : null}
+          help={lodash.get(
+            validation,
+            "errors.aggregationWindow[0]",
+            "Seconds to collect events of the same event definition and channel before sending them as one message. If value is 0, every event is sent immediately"
+          )}
+          value={config.aggregationWindow || ""}
+          inputmode="numeric"
+          pattern="[0-9]*"
+          onInput={this.handleChange.bind(this)}
+          onChange={this.handleChange}
+        />
+        <Input
+          id="notification-aggregationTopItems"
+          name="aggregationTopItems"
+          label="Aggregation Items"
+          type="number"
+          bsStyle={validation.errors.aggregationTopItems ? "error" : null}
+          help={lodash.get(
+            validation,
+            "errors.aggregationTopItems[0]",
+            "Maximum number of backlog items attached to an aggregated message"
+          )}
+          value={config.aggregationTopItems || ""}
+          inputmode="numeric"
+          pattern="[0-9]*"
+          onInput={this.handleChange.bind(this)}
+          onChange={this.handleChange}
+        />
       </React.Fragment>
     );
   }
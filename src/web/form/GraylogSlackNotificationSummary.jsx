@@ -90,6 +90,14 @@ class GraylogSlackNotificationSummary extends React.Component {
           <td>Use pre-formatted text</td>
           <td>{notification.config.preformat}</td>
         </tr>
+        <tr>
+          <td>Aggregation Window</td>
+          <td>{notification.config.aggregationWindow}</td>
+        </tr>
+        <tr>
+          <td>Aggregation Items</td>
+          <td>{notification.config.aggregationTopItems}</td>
+        </tr>
         </React.Fragment>
     </CommonNotificationSummary>
   )}